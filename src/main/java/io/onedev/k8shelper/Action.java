@@ -1,6 +1,9 @@
 package io.onedev.k8shelper;
 
 import java.io.Serializable;
+import java.util.List;
+
+import org.jspecify.annotations.Nullable;
 
 public class Action implements Serializable {
 
@@ -14,11 +17,23 @@ public class Action implements Serializable {
 	
 	private final StepFacade executable;
 	
+	private final List<Integer> dependencies;
+	
 	public Action(String name, StepFacade executable, ExecuteCondition condition, boolean optional) {
+		this(name, executable, condition, optional, null);
+	}
+	
+	/**
+	 * @param dependencies indexes of earlier actions in the same composite this action depends 
+	 * on, or <tt>null</tt> to depend on all earlier actions
+	 */
+	public Action(String name, StepFacade executable, ExecuteCondition condition, boolean optional, 
+				  @Nullable List<Integer> dependencies) {
 		this.name = name;
 		this.executable = executable;
 		this.condition = condition;
 		this.optional = optional;
+		this.dependencies = dependencies;
 	}
 
 	public String getName() {
@@ -36,5 +51,10 @@ public class Action implements Serializable {
 	public ExecuteCondition getCondition() {
 		return condition;
 	}
+
+	@Nullable
+	public List<Integer> getDependencies() {
+		return dependencies;
+	}
 	
 }
@@ -0,0 +1,30 @@
+package io.onedev.k8shelper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.jspecify.annotations.Nullable;
+
+import io.onedev.commons.utils.TaskLogger;
+
+/**
+ * Collects messages of a task running concurrently with others, so that they can be
+ * replayed to the real logger without interleaving
+ */
+public class BufferedTaskLogger extends TaskLogger {
+
+	private final List<Pair<String, String>> messages = new ArrayList<>();
+
+	@Override
+	public synchronized void log(String message, @Nullable String sessionId) {
+		messages.add(Pair.of(message, sessionId));
+	}
+
+	public synchronized void flushTo(TaskLogger logger) {
+		for (var message: messages)
+			logger.log(message.getLeft(), message.getRight());
+		messages.clear();
+	}
+
+}
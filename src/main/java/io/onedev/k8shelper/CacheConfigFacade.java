@@ -1,11 +1,7 @@
 package io.onedev.k8shelper;
 
 import java.io.File;
-import java.io.IOException;
 import java.io.Serializable;
-import java.nio.file.Files;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -85,26 +81,25 @@ public class CacheConfigFacade implements Serializable {
         key = KubernetesHelper.replacePlaceholders(key, baseDir);
     }
 
+    /**
+     * Compute checksum of checksum files with algorithm specified via 
+     * {@link ChecksumAlgorithm#ENV_CHECKSUM_ALGORITHM}, defaulting to {@link ChecksumAlgorithm#MD5}. 
+     * Digests are memorized in parent of the work dir to be reused by other cache configs and 
+     * later runs
+     */
     public void computeChecksum(File workDir, TaskLogger logger) {
         if (checksumFiles != null) {
             if (workDir.exists()) {    
-                try {
-                    var digest = MessageDigest.getInstance("MD5");
-                    var count = 0;
-                    for (var file: FileUtils.listFiles(workDir, checksumFiles.getLeft(), checksumFiles.getRight())) {
-                        digest.update(Files.readAllBytes(file.toPath()));
-                        count++;
-                    }
-                    if (count == 0)
-                        throw new ExplicitException("No checksum files found");
-                    var hashBytes = digest.digest();
-                    var sb = new StringBuilder();
-                    for (byte b : hashBytes)
-                        sb.append(String.format("%02x", b));
-                    checksum = sb.toString();
-                } catch (NoSuchAlgorithmException | IOException e) {
-                    throw new RuntimeException(e);
-                }
+                var files = FileUtils.listFiles(workDir, checksumFiles.getLeft(), checksumFiles.getRight());
+                if (files.isEmpty())
+                    throw new ExplicitException("No checksum files found");
+                var memo = DigestMemo.of(workDir.getAbsoluteFile().getParentFile());
+                var hits = memo.getHits().get();
+                var misses = memo.getMisses().get();
+                checksum = ChecksumAlgorithm.fromEnv().checksum(workDir, files, memo);
+                memo.save();
+                logger.log(String.format("Computed checksum of %d files (digest memo hits: %d, misses: %d)", 
+                        files.size(), memo.getHits().get() - hits, memo.getMisses().get() - misses));
             } else {
                 throw new ExplicitException("Work dir does not exist: " + workDir);
             }    
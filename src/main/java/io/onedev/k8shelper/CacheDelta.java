@@ -0,0 +1,44 @@
+package io.onedev.k8shelper;
+
+import java.io.Serializable;
+import java.util.List;
+
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Changes of a cache path against the cache restored from version {@link #getBaseVersion()}
+ */
+public class CacheDelta implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String baseVersion;
+
+	private final List<String> changedPaths;
+
+	private final List<String> deletedPaths;
+
+	public CacheDelta(@Nullable String baseVersion, List<String> changedPaths, List<String> deletedPaths) {
+		this.baseVersion = baseVersion;
+		this.changedPaths = changedPaths;
+		this.deletedPaths = deletedPaths;
+	}
+
+	@Nullable
+	public String getBaseVersion() {
+		return baseVersion;
+	}
+
+	public List<String> getChangedPaths() {
+		return changedPaths;
+	}
+
+	public List<String> getDeletedPaths() {
+		return deletedPaths;
+	}
+
+	public boolean isEmpty() {
+		return changedPaths.isEmpty() && deletedPaths.isEmpty();
+	}
+
+}
@@ -0,0 +1,205 @@
+package io.onedev.k8shelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FilenameUtils;
+import org.jspecify.annotations.Nullable;
+
+import com.google.common.base.Splitter;
+
+import io.onedev.commons.utils.ExplicitException;
+
+/**
+ * Encoding of cache tar streams exchanged with the worker api. Encoding is negotiated via the
+ * {@link #HEADER} header: helper lists accepted encodings when downloading, and server lists
+ * accepted encodings in response of the authorization check when uploading. Absence of the
+ * header means the plain tar stream
+ */
+public class CacheEncoding {
+
+	public static final String HEADER = "OneDevCacheEncoding";
+
+	public static final String GZIP = "gzip";
+
+	public static final String ENV_COMPRESSION_LEVEL = "ONEDEV_CACHE_COMPRESSION_LEVEL";
+
+	private static final int DEFAULT_COMPRESSION_LEVEL = 1;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+			"jar", "war", "ear", "aar", "apk", "zip", "whl", "nupkg", "gz", "tgz", "bz2", "xz",
+			"txz", "zst", "lz4", "br", "7z", "rar", "png", "jpg", "jpeg", "gif", "webp", "woff2",
+			"mp3", "mp4");
+
+	/*
+	 * Compressed entries smaller than this are compressed again, as switching deflate level
+	 * costs more than it saves for them
+	 */
+	private static final long MIN_STORED_SIZE = 8 * 1024;
+
+	public static int getCompressionLevel() {
+		var level = KubernetesHelper.getIntEnv(ENV_COMPRESSION_LEVEL, DEFAULT_COMPRESSION_LEVEL);
+		if (level < 0 || level > 9)
+			throw new ExplicitException("Environment '" + ENV_COMPRESSION_LEVEL + "' should be in range 0-9");
+		return level;
+	}
+
+	public static boolean isAccepted(@Nullable String acceptedEncodings, String encoding) {
+		if (acceptedEncodings == null)
+			return false;
+		for (var each: Splitter.on(',').trimResults().omitEmptyStrings().split(acceptedEncodings)) {
+			if (each.equalsIgnoreCase(encoding))
+				return true;
+		}
+		return false;
+	}
+
+	public static InputStream decode(InputStream is, @Nullable String encoding) {
+		if (encoding == null)
+			return is;
+		else if (encoding.equalsIgnoreCase(GZIP)) {
+			try {
+				return new GZIPInputStream(is, BUFFER_SIZE);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		} else {
+			throw new ExplicitException("Unsupported cache encoding: " + encoding);
+		}
+	}
+
+	/**
+	 * Wrap specified stream to gzip a tar stream written to it by {@link TarWriter} with the
+	 * returned stream as entry listener. Entries whose names indicate that they are already
+	 * compressed are stored instead of being compressed again. Closing returned stream
+	 * finishes the gzip stream without closing the wrapped stream
+	 */
+	public static TarGzipOutputStream encodeTar(OutputStream os, int level) {
+		try {
+			return new TarGzipOutputStream(os, level);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Wrap specified stream to gzip data written to it. Closing returned stream finishes the
+	 * gzip stream without closing the wrapped stream
+	 */
+	public static OutputStream encode(OutputStream os, int level) {
+		try {
+			return new GzipOutputStream(os, level);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static boolean isCompressed(String fileName) {
+		return COMPRESSED_EXTENSIONS.contains(FilenameUtils.getExtension(fileName).toLowerCase(Locale.ROOT));
+	}
+
+	private static class GzipOutputStream extends GZIPOutputStream {
+
+		private boolean closed;
+
+		GzipOutputStream(OutputStream os, int level) throws IOException {
+			super(os, BUFFER_SIZE);
+			def.setLevel(level);
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				finish();
+				def.end();
+				out.flush();
+			}
+		}
+
+	}
+
+	/**
+	 * Gzip stream switching deflate level per entry as notified by {@link TarWriter}. Deflate
+	 * level change takes effect at next deflate block, so the result is a standard gzip stream
+	 */
+	public static class TarGzipOutputStream extends GzipOutputStream implements TarWriter.EntryListener {
+
+		private final int level;
+
+		private int currentLevel;
+
+		// Tar records are written in small pieces, buffer them to deflate in larger blocks
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+
+		private int count;
+
+		TarGzipOutputStream(OutputStream os, int level) throws IOException {
+			super(os, level);
+			this.level = level;
+			currentLevel = level;
+		}
+
+		@Override
+		public synchronized void write(int b) throws IOException {
+			if (count == buffer.length)
+				flushBuffer();
+			buffer[count++] = (byte) b;
+		}
+
+		@Override
+		public synchronized void write(byte[] buf, int off, int len) throws IOException {
+			if (len >= buffer.length) {
+				flushBuffer();
+				super.write(buf, off, len);
+			} else {
+				if (len > buffer.length - count)
+					flushBuffer();
+				System.arraycopy(buf, off, buffer, count, len);
+				count += len;
+			}
+		}
+
+		private void flushBuffer() throws IOException {
+			if (count != 0) {
+				super.write(buffer, 0, count);
+				count = 0;
+			}
+		}
+
+		@Override
+		public synchronized void beforeEntry(String path, BasicFileAttributes attrs) throws IOException {
+			flushBuffer();
+			var entryLevel = level;
+			if (attrs.isRegularFile() && attrs.size() >= MIN_STORED_SIZE && isCompressed(path))
+				entryLevel = Deflater.NO_COMPRESSION;
+			if (entryLevel != currentLevel) {
+				def.setLevel(entryLevel);
+				currentLevel = entryLevel;
+			}
+		}
+
+		@Override
+		public synchronized void flush() throws IOException {
+			flushBuffer();
+			super.flush();
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			flushBuffer();
+			super.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,269 @@
+package io.onedev.k8shelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jspecify.annotations.Nullable;
+
+import com.google.common.hash.HashingOutputStream;
+
+import io.onedev.commons.utils.ExplicitException;
+
+/**
+ * Records files of a cache path, so that changes can be calculated against it later. It is
+ * written when cache is restored, and remembers version of the restored cache in order to
+ * upload changes as a delta against that version. Content digests are recorded so that files
+ * touched without being modified are not treated as changes
+ */
+public class CacheManifest {
+
+	private static final int FORMAT_VERSION = 3;
+
+	private String baseVersion;
+
+	private final Map<String, FileState> files = new TreeMap<>();
+
+	// States of files recorded while extracted, so that they are not read back when scanned
+	private final Map<String, FileState> extractedFiles = new ConcurrentHashMap<>();
+
+	@Nullable
+	public String getBaseVersion() {
+		return baseVersion;
+	}
+
+	public void setBaseVersion(@Nullable String baseVersion) {
+		this.baseVersion = baseVersion;
+	}
+
+	public Map<String, FileState> getFiles() {
+		return files;
+	}
+
+	/**
+	 * @return total size of recorded regular files
+	 */
+	public long getSize() {
+		long size = 0;
+		for (var state: files.values()) {
+			if (state.getType() == FileType.REGULAR_FILE)
+				size += state.getSize();
+		}
+		return size;
+	}
+
+	/**
+	 * Record digest of a regular file computed while it is extracted. The digest is used when 
+	 * the file is scanned later if its size and modification time are not changed
+	 */
+	public void recordExtracted(String relativePath, long size, long lastModified, String digest) {
+		extractedFiles.put(relativePath, new FileState(FileType.REGULAR_FILE, size, lastModified, digest));
+	}
+
+	/**
+	 * Record directories, regular files and symbolic links under specified dir not matching the 
+	 * exclude matcher. Directories are recorded so that added or removed directories (for 
+	 * instance empty ones) are treated as changes
+	 * 
+	 * @param digest whether to record content digest of regular files. Target of symbolic links
+	 * is always recorded as digest. Digests recorded via {@link #recordExtracted} are reused
+	 */
+	public void scan(File dir, ExcludeMatcher excludeMatcher, boolean digest) {
+		files.clear();
+		if (!dir.exists())
+			return;
+		excludeMatcher.walk(dir, (path, relativePath, attrs) -> {
+			var lastModified = attrs.lastModifiedTime().toMillis();
+			if (attrs.isSymbolicLink()) {
+				var target = Files.readSymbolicLink(path).toString();
+				files.put(relativePath, new FileState(FileType.SYMBOLIC_LINK, 0, lastModified, target));
+			} else if (attrs.isDirectory()) {
+				files.put(relativePath, new FileState(FileType.DIRECTORY, 0, lastModified, null));
+			} else if (attrs.isRegularFile()) {
+				String fileDigest = null;
+				if (digest) {
+					var extracted = extractedFiles.get(relativePath);
+					if (extracted != null && extracted.size == attrs.size() && extracted.lastModified == lastModified)
+						fileDigest = extracted.digest;
+					else
+						fileDigest = digest(path);
+				}
+				files.put(relativePath, new FileState(FileType.REGULAR_FILE, attrs.size(), lastModified, fileDigest));
+			}
+			return true;
+		});
+	}
+
+	static String getRelativePath(Path basePath, Path path) {
+		return basePath.relativize(path).toString().replace(File.separatorChar, '/');
+	}
+
+	static String digest(Path file) throws IOException {
+		return ChecksumAlgorithm.MURMUR3.digest(file);
+	}
+
+	static String digest(byte[] content) {
+		return ChecksumAlgorithm.MURMUR3.digest(content);
+	}
+
+	static HashingOutputStream digesting(OutputStream os) {
+		return ChecksumAlgorithm.MURMUR3.digesting(os);
+	}
+
+	/**
+	 * Calculate changes of specified manifest against this manifest. Content of a file is only 
+	 * digested if its size is the same as recorded but modification time is not
+	 * 
+	 * @param dir directory of specified manifest, used to digest file content
+	 */
+	public CacheDelta diff(CacheManifest current, File dir) {
+		var changedPaths = new ArrayList<String>();
+		var deletedPaths = new ArrayList<String>();
+		for (var entry: current.files.entrySet()) {
+			var recorded = files.get(entry.getKey());
+			if (recorded == null || !recorded.isSameContent(entry.getValue(), new File(dir, entry.getKey())))
+				changedPaths.add(entry.getKey());
+		}
+		for (var path: files.keySet()) {
+			if (!current.files.containsKey(path))
+				deletedPaths.add(path);
+		}
+		return new CacheDelta(baseVersion, changedPaths, deletedPaths);
+	}
+
+	public void write(File file) {
+		try (var os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath())))) {
+			os.writeInt(FORMAT_VERSION);
+			os.writeUTF(baseVersion != null ? baseVersion : "");
+			os.writeInt(files.size());
+			for (var entry: files.entrySet()) {
+				os.writeUTF(entry.getKey());
+				var state = entry.getValue();
+				os.writeByte(state.type.ordinal());
+				os.writeLong(state.size);
+				os.writeLong(state.lastModified);
+				os.writeUTF(state.digest != null ? state.digest : "");
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static CacheManifest read(File file) {
+		try (var is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+			if (is.readInt() != FORMAT_VERSION)
+				throw new ExplicitException("Unexpected cache manifest format: " + file.getAbsolutePath());
+			var manifest = new CacheManifest();
+			var baseVersion = is.readUTF();
+			if (baseVersion.length() != 0)
+				manifest.baseVersion = baseVersion;
+			var count = is.readInt();
+			for (int i = 0; i < count; i++) {
+				var path = is.readUTF();
+				var type = FileType.values()[is.readByte()];
+				var size = is.readLong();
+				var lastModified = is.readLong();
+				var digest = is.readUTF();
+				manifest.files.put(path, new FileState(type, size, lastModified, 
+						digest.length() != 0 ? digest : null));
+			}
+			return manifest;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public enum FileType {REGULAR_FILE, DIRECTORY, SYMBOLIC_LINK}
+	
+	public static class FileState {
+
+		private final FileType type;
+
+		private final long size;
+
+		private final long lastModified;
+
+		private final String digest;
+
+		public FileState(FileType type, long size, long lastModified, @Nullable String digest) {
+			this.type = type;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.digest = digest;
+		}
+
+		public FileType getType() {
+			return type;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return content digest of regular file, or target of symbolic link. <tt>null</tt> if 
+		 * not recorded
+		 */
+		@Nullable
+		public String getDigest() {
+			return digest;
+		}
+
+		/**
+		 * Check if specified state has same content as this state
+		 * 
+		 * @param file file of specified state, used to digest its content if necessary 
+		 */
+		public boolean isSameContent(FileState state, File file) {
+			if (type != state.type)
+				return false;
+			else if (type == FileType.DIRECTORY)
+				return true;
+			else if (type == FileType.SYMBOLIC_LINK)
+				return Objects.equals(digest, state.digest);
+			else if (size != state.size)
+				return false;
+			else if (lastModified == state.lastModified)
+				return true;
+			else if (digest == null)
+				return false;
+			
+			try {
+				return digest.equals(state.digest != null ? state.digest : digest(file.toPath()));
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof FileState))
+				return false;
+			var otherState = (FileState) other;
+			return type == otherState.type && size == otherState.size
+					&& lastModified == otherState.lastModified && Objects.equals(digest, otherState.digest);
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(size) * 31 + Long.hashCode(lastModified);
+		}
+
+	}
+
+}
@@ -4,6 +4,7 @@ import static io.onedev.k8shelper.UploadStrategy.UPLOAD_IF_NOT_EXACT_MATCH;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
@@ -11,6 +12,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import org.apache.commons.io.FilenameUtils;
@@ -34,6 +37,8 @@ public abstract class CacheProvisioner implements Serializable {
 
     private final Set<String> exactMatchPaths = new HashSet<>();
 
+    private final Map<String, File> manifestFiles = new HashMap<>();
+
     private final int configIndex;
 
     private Date provisionDate;
@@ -82,44 +87,113 @@ public abstract class CacheProvisioner implements Serializable {
         config.replacePlaceholders(baseDir);
         config.computeChecksum(new File(baseDir, "work"), logger);
 
-        for (var entry: config.getEntries()) {
+        List<Callable<CacheAvailability>> tasks = new ArrayList<>();
+        List<TransferStats> entryStats = new ArrayList<>();
+        for (int i = 0; i < config.getEntries().size(); i++) {
+            var entry = config.getEntries().get(i);
             var path = entry.getPath();
             var pathDir = getPathDir(baseDir, path);
-            FileUtils.createDir(pathDir);
-            var availability = download(config.getKey(), config.getChecksum(), path, pathDir);
+            var manifestFile = new File(baseDir, getCacheDirName() + "/manifest-" + (i + 1));
+            var stats = new TransferStats("cache-download", config.describe(path));
+            entryStats.add(stats);
+            tasks.add(() -> {
+                FileUtils.createDir(pathDir);
+                var scheduler = TransferScheduler.get();
+                if (config.getUploadStrategy() == UPLOAD_IF_NOT_EXACT_MATCH) {
+                    return scheduler.execute(TransferScheduler.UNKNOWN_SIZE, () -> stats.record(
+                            () -> download(config.getKey(), config.getChecksum(), path, pathDir)));
+                }
+
+                var manifest = new CacheManifest();
+                var availability = scheduler.execute(TransferScheduler.UNKNOWN_SIZE, () -> stats.record(
+                        () -> download(config.getKey(), config.getChecksum(), path, pathDir, manifest)));
+                var excludes = Arrays.asList(StringUtils.parseQuoteTokens(entry.getExcludes()));
+                manifest.scan(pathDir, ExcludeMatcher.of(excludes), true);
+                FileUtils.createDir(manifestFile.getParentFile());
+                manifest.write(manifestFile);
+                synchronized (manifestFiles) {
+                    manifestFiles.put(path, manifestFile);
+                }
+                return availability;
+            });
+        }
+        // Concurrency is limited by the transfer scheduler
+        ConcurrentTasks.run(tasks, tasks.size(), (index, availability) -> {
+            var path = config.getEntries().get(index).getPath();
+            var stats = entryStats.get(index).describe();
             if (availability == CacheAvailability.EXACT_MATCH)
-                logger.log("Exact matched " + config.describe(path));
+                logger.log("Exact matched " + config.describe(path) + ": " + stats);
             else if (availability == CacheAvailability.PARTIAL_MATCH)
-                logger.log("Partial matched " + config.describe(path));
+                logger.log("Partial matched " + config.describe(path) + ": " + stats);
 
             if (availability == CacheAvailability.EXACT_MATCH)
                 exactMatchPaths.add(path);
-        }
+        });
         provisionDate = new Date();
     }
 
-    private void uploadThenLog(String path, File pathDir, List<String> excludes, TaskLogger logger) {
-        if (upload(config, path, pathDir, excludes))
-            logger.log(String.format("Uploaded %s", config.describeUpload(path)));
+    private void uploadThenLog(String path, File pathDir, List<String> excludes, 
+            @Nullable CacheManifest current, @Nullable CacheDelta delta, TaskLogger logger) {
+        long size;
+        // Whole directory is uploaded if server does not support delta upload. Size is 
+        // taken from current manifest if scanned, to avoid walking the directory again
+        if (delta != null && delta.getBaseVersion() != null && isDeltaUploadSupported(config)) {
+            size = 0;
+            for (var changedPath: delta.getChangedPaths())
+                size += new File(pathDir, changedPath).length();
+        } else if (current != null) {
+            size = current.getSize();
+        } else {
+            size = TransferScheduler.UNKNOWN_SIZE;
+        }
+        var stats = new TransferStats("cache-upload", config.describeUpload(path));
+        if (TransferScheduler.get().execute(size, () -> stats.record(() -> upload(config, path, pathDir, excludes, delta))))
+            logger.log(String.format("Uploaded %s: %s", config.describeUpload(path), stats.describe()));
         else
             logger.warning(String.format("Not authorized to upload %s", config.describeUpload(path)));
     }
 
     public void upload(File baseDir, TaskLogger logger) {
+        List<Consumer<TaskLogger>> tasks = new ArrayList<>();
         for (var entry: config.getEntries()) {
             var path = entry.getPath();
             var pathDir = getPathDir(baseDir, path);
             var excludes = Arrays.asList(StringUtils.parseQuoteTokens(entry.getExcludes()));
-            if (config.getUploadStrategy() == UPLOAD_IF_NOT_EXACT_MATCH) {
-                if (!exactMatchPaths.contains(path)) 
-                    uploadThenLog(path, pathDir, excludes, logger);
-            } else {
-                if (provisionDate == null || FileUtils.hasChangedFiles(pathDir, provisionDate, excludes)) {
-                    logger.log("Changes detected in " + config.describe(path));
-                    uploadThenLog(path, pathDir, excludes, logger);
-                }   
-            }                 
+            tasks.add(entryLogger -> {
+                var manifestFile = manifestFiles.get(path);
+                if (config.getUploadStrategy() == UPLOAD_IF_NOT_EXACT_MATCH) {
+                    if (!exactMatchPaths.contains(path))
+                        uploadThenLog(path, pathDir, excludes, null, null, entryLogger);
+                } else if (provisionDate == null) {
+                    entryLogger.log("Changes detected in " + config.describe(path));
+                    uploadThenLog(path, pathDir, excludes, null, null, entryLogger);
+                } else {
+                    // Parallel walk stopping at first change, to avoid scanning manifest of 
+                    // unchanged paths
+                    var detector = new ChangeDetector(ExcludeMatcher.of(excludes), provisionDate, true);
+                    if (!detector.detect(pathDir)) {
+                        entryLogger.log(String.format("No changes in %s (%s)", 
+                                config.describe(path), detector.describe()));
+                    } else if (manifestFile != null && manifestFile.exists()) {
+                        var current = new CacheManifest();
+                        current.scan(pathDir, ExcludeMatcher.of(excludes), false);
+                        var delta = CacheManifest.read(manifestFile).diff(current, pathDir);
+                        if (!delta.isEmpty()) {
+                            entryLogger.log(String.format("Changes detected in %s (%s)", 
+                                    config.describe(path), detector.describe()));
+                            uploadThenLog(path, pathDir, excludes, current, delta, entryLogger);
+                        } else {
+                            entryLogger.log("No changes in " + config.describe(path));
+                        }
+                    } else {
+                        entryLogger.log(String.format("Changes detected in %s (%s)", 
+                                config.describe(path), detector.describe()));
+                        uploadThenLog(path, pathDir, excludes, null, null, entryLogger);
+                    }
+                }
+            });
         }
+        ConcurrentTasks.run(tasks, tasks.size(), logger);
     }
 
     public void mountVolumes(Commandline docker, File workspaceDir, Function<String, String> hostPathResolver) {
@@ -137,4 +211,30 @@ public abstract class CacheProvisioner implements Serializable {
 
     protected abstract boolean upload(CacheConfigFacade config, String path, File pathDir, List<String> excludes);
 
+    /**
+     * Download cache and record version of the restored cache into specified manifest. 
+     * Override to support delta upload
+     */
+    protected CacheAvailability download(String key, @Nullable String checksum,
+            String path, File pathDir, CacheManifest restored) {
+        return download(key, checksum, path, pathDir);
+    }
+
+    /**
+     * @return whether changes can be uploaded as a delta via {@link #upload(CacheConfigFacade, 
+     * String, File, List, CacheDelta)}. Used to estimate size of uploads
+     */
+    protected boolean isDeltaUploadSupported(CacheConfigFacade config) {
+        return false;
+    }
+
+    /**
+     * Upload cache. If delta is specified, implementation may choose to only upload changes
+     * described by it
+     */
+    protected boolean upload(CacheConfigFacade config, String path, File pathDir,
+            List<String> excludes, @Nullable CacheDelta delta) {
+        return upload(config, path, pathDir, excludes);
+    }
+
 }
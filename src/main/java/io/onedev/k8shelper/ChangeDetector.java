@@ -0,0 +1,150 @@
+package io.onedev.k8shelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Detects whether files, symbolic links or directories not excluded under a dir are modified
+ * after a date. Modification time of directories is optionally checked so that deleted and 
+ * renamed children are detected as well. As it also changes when only excluded children 
+ * change, it should only be checked if a more accurate diff follows. Directories are walked 
+ * in parallel by a fork join pool, and all workers stop as soon as a change is found. 
+ * Subtrees excluded entirely are not walked
+ */
+public class ChangeDetector {
+
+	public static final String ENV_CHANGE_DETECT_THREADS = "ONEDEV_CHANGE_DETECT_THREADS";
+
+	private static final int DEFAULT_CHANGE_DETECT_THREADS = 8;
+
+	private final ExcludeMatcher excludeMatcher;
+
+	private final long since;
+
+	private final boolean checkDirectories;
+
+	private final AtomicBoolean changed = new AtomicBoolean();
+
+	private final AtomicInteger visitedFiles = new AtomicInteger();
+
+	private long elapsedMillis;
+
+	public ChangeDetector(ExcludeMatcher excludeMatcher, Date since, boolean checkDirectories) {
+		this.excludeMatcher = excludeMatcher;
+		this.since = since.getTime();
+		this.checkDirectories = checkDirectories;
+	}
+
+	public boolean detect(File dir) {
+		var startTime = System.currentTimeMillis();
+		try {
+			var path = dir.toPath();
+			BasicFileAttributes attrs;
+			try {
+				attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			} catch (NoSuchFileException e) {
+				return false;
+			}
+			visitedFiles.incrementAndGet();
+			if (isModified(attrs))
+				return true;
+			if (!attrs.isDirectory())
+				return false;
+
+			var threads = KubernetesHelper.getIntEnv(ENV_CHANGE_DETECT_THREADS, DEFAULT_CHANGE_DETECT_THREADS);
+			var pool = new ForkJoinPool(Math.max(threads, 1));
+			try {
+				pool.invoke(new WalkTask(path, excludeMatcher.start()));
+			} finally {
+				pool.shutdownNow();
+			}
+			return changed.get();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} catch (UncheckedIOException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			elapsedMillis = System.currentTimeMillis() - startTime;
+		}
+	}
+
+	private boolean isModified(BasicFileAttributes attrs) {
+		return (checkDirectories || !attrs.isDirectory()) && attrs.lastModifiedTime().toMillis() > since;
+	}
+
+	/**
+	 * @return number of files and directories visited by last detection
+	 */
+	public int getVisitedFiles() {
+		return visitedFiles.get();
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	public String describe() {
+		return String.format("visited %d files in %d ms", getVisitedFiles(), getElapsedMillis());
+	}
+
+	private class WalkTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path dir;
+
+		private final ExcludeMatcher.State state;
+
+		WalkTask(Path dir, ExcludeMatcher.State state) {
+			this.dir = dir;
+			this.state = state;
+		}
+
+		@Override
+		protected void compute() {
+			List<WalkTask> subtasks = new ArrayList<>();
+			try (var children = Files.newDirectoryStream(dir)) {
+				for (var child: children) {
+					if (changed.get())
+						return;
+					var childState = state.next(child.getFileName().toString());
+					if (childState.isSubtreeExcluded())
+						continue;
+					BasicFileAttributes attrs;
+					try {
+						attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					} catch (NoSuchFileException e) {
+						continue;
+					}
+					visitedFiles.incrementAndGet();
+					if (!childState.isExcluded() && isModified(attrs)) {
+						changed.set(true);
+						return;
+					}
+					if (attrs.isDirectory()) 
+						subtasks.add(new WalkTask(child, childState));
+				}
+			} catch (NoSuchFileException e) {
+				return;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			invokeAll(subtasks);
+		}
+
+	}
+
+}
@@ -0,0 +1,194 @@
+package io.onedev.k8shelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.jspecify.annotations.Nullable;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
+
+import io.onedev.commons.utils.ExplicitException;
+import io.onedev.commons.utils.StringUtils;
+
+/**
+ * Algorithm to compute cache checksum from checksum files. {@link #MD5} digests content of
+ * all files as a single stream in listing order, which is the format used historically. Other
+ * algorithms digest files in parallel, and combine relative paths and digests of the files
+ * in path order
+ */
+@SuppressWarnings("deprecation")
+public enum ChecksumAlgorithm {
+
+	MD5(Hashing.md5()),
+
+	SHA256(Hashing.sha256()),
+
+	MURMUR3(Hashing.murmur3_128());
+
+	public static final String ENV_CHECKSUM_ALGORITHM = "ONEDEV_CACHE_CHECKSUM_ALGORITHM";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final HashFunction hashFunction;
+
+	ChecksumAlgorithm(HashFunction hashFunction) {
+		this.hashFunction = hashFunction;
+	}
+
+	public static ChecksumAlgorithm fromEnv() {
+		var value = System.getenv(ENV_CHECKSUM_ALGORITHM);
+		if (StringUtils.isNotBlank(value)) {
+			for (var algorithm: values()) {
+				if (algorithm.name().equalsIgnoreCase(value.trim()))
+					return algorithm;
+			}
+			throw new ExplicitException("Environment '" + ENV_CHECKSUM_ALGORITHM
+					+ "' should be one of md5, sha256 and murmur3: " + value);
+		} else {
+			return MD5;
+		}
+	}
+
+	/**
+	 * Feed content of specified file into specified hasher with a bounded buffer
+	 */
+	private static void putContent(Hasher hasher, Path file, ByteBuffer buffer) throws IOException {
+		try (var channel = FileChannel.open(file)) {
+			buffer.clear();
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				hasher.putBytes(buffer);
+				buffer.clear();
+			}
+		}
+	}
+
+	public String digest(Path file) throws IOException {
+		var hasher = hashFunction.newHasher();
+		putContent(hasher, file, ByteBuffer.allocate(BUFFER_SIZE));
+		return hasher.hash().toString();
+	}
+
+	public String digest(byte[] content) {
+		return hashFunction.hashBytes(content).toString();
+	}
+
+	/**
+	 * Wrap specified stream to digest content written through it
+	 */
+	public HashingOutputStream digesting(OutputStream os) {
+		return new HashingOutputStream(hashFunction, os);
+	}
+
+	/**
+	 * Compute checksum of specified files
+	 *
+	 * @param baseDir base directory of files, used to calculate relative paths
+	 * @param memo memo to reuse digests of unchanged files, as well as checksum of unchanged
+	 * file set
+	 */
+	public String checksum(File baseDir, Collection<File> files, @Nullable DigestMemo memo) {
+		try {
+			var basePath = baseDir.toPath();
+			var relativePaths = new ArrayList<String>();
+			var memoKeys = new ArrayList<String>();
+			var setHasher = Hashing.murmur3_128().newHasher();
+			var setMemorizable = memo != null;
+			for (var file: files) {
+				var relativePath = CacheManifest.getRelativePath(basePath, file.toPath());
+				relativePaths.add(relativePath);
+				String memoKey = null;
+				if (memo != null) {
+					var attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+					memoKey = DigestMemo.getKey(name(), relativePath, attrs);
+				}
+				memoKeys.add(memoKey);
+				if (memoKey != null) 
+					setHasher.putUnencodedChars(memoKey).putByte((byte) '\n');
+				else 
+					setMemorizable = false;
+			}
+
+			String setMemoKey = null;
+			if (setMemorizable) {
+				setMemoKey = name() + "\0" + setHasher.hash();
+				var checksum = memo.get(setMemoKey);
+				if (checksum != null) {
+					memo.getHits().addAndGet(files.size());
+					return checksum;
+				}
+			}
+
+			String checksum;
+			if (this == MD5) {
+				var hasher = hashFunction.newHasher();
+				var buffer = ByteBuffer.allocate(BUFFER_SIZE);
+				for (var file: files)
+					putContent(hasher, file.toPath(), buffer);
+				checksum = hasher.hash().toString();
+				if (memo != null)
+					memo.getMisses().addAndGet(files.size());
+			} else {
+				var fileList = new ArrayList<>(files);
+				var digests = IntStream.range(0, fileList.size()).parallel().mapToObj(i -> {
+					var memoKey = memoKeys.get(i);
+					String digest = null;
+					if (memoKey != null) 
+						digest = memo.get(memoKey);
+					if (digest != null) {
+						memo.getHits().incrementAndGet();
+					} else {
+						try {
+							digest = digest(fileList.get(i).toPath());
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+						if (memo != null) {
+							memo.getMisses().incrementAndGet();
+							if (memoKey != null)
+								memo.put(memoKey, digest);
+						}
+					}
+					return Pair.of(relativePaths.get(i), digest);
+				}).sorted(Comparator.comparing(Pair::getLeft)).collect(Collectors.toList());
+				checksum = combine(digests);
+			}
+			if (setMemoKey != null)
+				memo.put(setMemoKey, checksum);
+			return checksum;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} catch (UncheckedIOException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Combine relative paths and digests of files sorted by path into a checksum
+	 */
+	public String combine(Collection<Pair<String, String>> digests) {
+		var hasher = hashFunction.newHasher();
+		for (var digest: digests) {
+			hasher.putUnencodedChars(digest.getLeft()).putByte((byte) 0);
+			hasher.putUnencodedChars(digest.getRight()).putByte((byte) '\n');
+		}
+		return hasher.hash().toString();
+	}
+
+}
@@ -0,0 +1,97 @@
+package io.onedev.k8shelper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Splits written data into content defined chunks with a gear rolling hash (FastCDC style
+ * normalized chunking), so that an insertion or removal only changes chunks around it.
+ * Chunk boundaries only affect deduplication ratio, and never correctness
+ */
+public class ChunkingOutputStream extends OutputStream {
+
+	public static final int MIN_CHUNK_SIZE = 256 * 1024;
+
+	public static final int AVG_CHUNK_SIZE = 1024 * 1024;
+
+	public static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+
+	// more bits to cut than average before reaching average size, and less bits after
+	private static final long MASK_SMALL = -1L << (64 - 22);
+
+	private static final long MASK_LARGE = -1L << (64 - 18);
+
+	private static final long[] GEAR = new long[256];
+
+	static {
+		// fixed seed to keep boundaries stable across helper versions
+		var random = new Random(0x6f6e65646576L);
+		for (int i = 0; i < GEAR.length; i++)
+			GEAR[i] = random.nextLong();
+	}
+
+	private final ChunkConsumer consumer;
+
+	private final byte[] buffer = new byte[MAX_CHUNK_SIZE];
+
+	private int length;
+
+	private long hash;
+
+	private boolean closed;
+
+	public ChunkingOutputStream(ChunkConsumer consumer) {
+		this.consumer = consumer;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		var end = off + len;
+		while (off < end) {
+			if (length < MIN_CHUNK_SIZE) {
+				int count = Math.min(end - off, MIN_CHUNK_SIZE - length);
+				System.arraycopy(b, off, buffer, length, count);
+				length += count;
+				off += count;
+			} else {
+				var value = b[off++];
+				buffer[length++] = value;
+				hash = (hash << 1) + GEAR[value & 0xff];
+				var mask = length < AVG_CHUNK_SIZE ? MASK_SMALL : MASK_LARGE;
+				if ((hash & mask) == 0 || length == MAX_CHUNK_SIZE)
+					cut();
+			}
+		}
+	}
+
+	private void cut() throws IOException {
+		consumer.consume(buffer, length);
+		length = 0;
+		hash = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			if (length != 0)
+				cut();
+		}
+	}
+
+	public interface ChunkConsumer {
+
+		/**
+		 * Consume a chunk. Content of the buffer will be reused after this call returns
+		 */
+		void consume(byte[] buffer, int length) throws IOException;
+
+	}
+
+}
@@ -3,16 +3,32 @@ package io.onedev.k8shelper;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 
+import io.onedev.commons.utils.ExplicitException;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import static io.onedev.k8shelper.ExecuteCondition.ALWAYS;
+import static io.onedev.k8shelper.ExecuteCondition.NEVER;
 import static io.onedev.k8shelper.ExecuteCondition.SUCCESSFUL;
+import static java.util.stream.Collectors.toList;
 
 public class CompositeFacade implements StepFacade {
 
 	private static final long serialVersionUID = 1L;
 
+	private static final AtomicInteger threadIndex = new AtomicInteger(1);
+
 	private final List<Action> actions;
 	
 	public CompositeFacade(List<Action> actions) {
@@ -25,6 +41,13 @@ public class CompositeFacade implements StepFacade {
 
 	@Override
 	public boolean execute(LeafHandler handler, List<Integer> position) {
+		if (actions.stream().allMatch(it -> it.getDependencies() == null))
+			return executeSequentially(handler, position);
+		else
+			return executeAsGraph(handler, position);
+	}
+	
+	private boolean executeSequentially(LeafHandler handler, List<Integer> position) {
 		var successful = true;
 		for (int i = 0; i<actions.size(); i++) {
 			Action action = actions.get(i);
@@ -32,6 +55,14 @@ public class CompositeFacade implements StepFacade {
 			newPosition.add(i);
 			if (action.getCondition() == ALWAYS 
 					|| action.getCondition() == SUCCESSFUL && successful) {
+				for (int j = i + 1; j<actions.size(); j++) {
+					if (actions.get(j).getCondition() != NEVER) {
+						List<Integer> nextPosition = new ArrayList<>(position);
+						nextPosition.add(j);
+						actions.get(j).getExecutable().prepare(handler, nextPosition);
+						break;
+					}
+				}
 				var actionSuccessful = action.getExecutable().execute(handler, newPosition);
 				if (!action.isOptional())
 					successful &= actionSuccessful;
@@ -42,6 +73,116 @@ public class CompositeFacade implements StepFacade {
 		return successful;
 	}
 
+	/**
+	 * Execute actions as soon as their dependencies finish. An action is considered 
+	 * successful only if all its dependencies are successful, so that failures propagate 
+	 * to dependent actions with condition {@link ExecuteCondition#SUCCESSFUL}
+	 */
+	private boolean executeAsGraph(LeafHandler handler, List<Integer> position) {
+		var dependencies = getDependencies();
+		List<List<Integer>> dependents = new ArrayList<>();
+		var pendingDependencies = new int[actions.size()];
+		for (int i = 0; i<actions.size(); i++) {
+			dependents.add(new ArrayList<>());
+			pendingDependencies[i] = dependencies.get(i).size();
+			for (var dependency: dependencies.get(i))
+				dependents.get(dependency).add(i);
+		}
+		
+		var results = new boolean[actions.size()];
+		Deque<Integer> readyActions = new ArrayDeque<>();
+		for (int i = 0; i<actions.size(); i++) {
+			if (pendingDependencies[i] == 0)
+				readyActions.add(i);
+		}
+
+		ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+			var thread = new Thread(runnable, "step-" + threadIndex.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			var completionService = new ExecutorCompletionService<Pair<Integer, Boolean>>(executor);
+			var finished = 0;
+			while (finished < actions.size()) {
+				while (!readyActions.isEmpty()) {
+					int index = readyActions.poll();
+					var action = actions.get(index);
+					List<Integer> newPosition = new ArrayList<>(position);
+					newPosition.add(index);
+					var dependenciesSuccessful = dependencies.get(index).stream().allMatch(it -> results[it]);
+					if (action.getCondition() == ALWAYS 
+							|| action.getCondition() == SUCCESSFUL && dependenciesSuccessful) {
+						completionService.submit(() -> Pair.of(index, action.getExecutable().execute(handler, newPosition)));
+					} else {
+						action.getExecutable().skip(handler, newPosition);
+						results[index] = action.getCondition() == NEVER && dependenciesSuccessful;
+						finished++;
+						for (var dependent: dependents.get(index)) {
+							if (--pendingDependencies[dependent] == 0)
+								readyActions.add(dependent);
+						}
+					}
+				}
+				if (finished == actions.size())
+					break;
+				
+				Pair<Integer, Boolean> result;
+				try {
+					result = completionService.take().get();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof RuntimeException)
+						throw (RuntimeException) e.getCause();
+					else if (e.getCause() instanceof Error)
+						throw (Error) e.getCause();
+					else
+						throw new RuntimeException(e.getCause());
+				}
+				int index = result.getLeft();
+				var action = actions.get(index);
+				results[index] = dependencies.get(index).stream().allMatch(it -> results[it]) 
+						&& (result.getRight() || action.isOptional());
+				finished++;
+				for (var dependent: dependents.get(index)) {
+					if (--pendingDependencies[dependent] == 0)
+						readyActions.add(dependent);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		for (var result: results) {
+			if (!result)
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * @return indexes of actions each action depends on 
+	 */
+	public List<List<Integer>> getDependencies() {
+		List<List<Integer>> dependencies = new ArrayList<>();
+		for (int i = 0; i<actions.size(); i++) {
+			var action = actions.get(i);
+			if (action.getDependencies() != null) {
+				for (var dependency: action.getDependencies()) {
+					if (dependency < 0 || dependency >= i) {
+						throw new ExplicitException("Action '" + action.getName() 
+								+ "' can only depend on actions defined before it");
+					}
+				}
+				dependencies.add(action.getDependencies());
+			} else {
+				dependencies.add(IntStream.range(0, i).boxed().collect(toList()));
+			}
+		}
+		return dependencies;
+	}
+
 	@Override
 	public void skip(LeafHandler handler, List<Integer> position) {
 		for (int i=0; i<actions.size(); i++) { 
@@ -51,6 +192,19 @@ public class CompositeFacade implements StepFacade {
 		}
 	}
 
+	@Override
+	public void prepare(LeafHandler handler, List<Integer> position) {
+		for (int i = 0; i<actions.size(); i++) {
+			var action = actions.get(i);
+			if (action.getCondition() != NEVER) {
+				List<Integer> newPosition = new ArrayList<>(position);
+				newPosition.add(i);
+				action.getExecutable().prepare(handler, newPosition);
+				break;
+			}
+		}
+	}
+
 	@Override
 	public <T> T traverse(LeafVisitor<T> visitor, List<Integer> position) {
 		for (int i=0; i<actions.size(); i++) {
@@ -0,0 +1,119 @@
+package io.onedev.k8shelper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import io.onedev.commons.utils.TaskLogger;
+
+/**
+ * Runs a list of tasks with bounded concurrency. Results are handed out in task order
+ * as soon as all preceding tasks are done, and the first failure cancels the remaining
+ * tasks and is rethrown to the caller
+ */
+public class ConcurrentTasks {
+
+	private static final AtomicInteger threadIndex = new AtomicInteger(1);
+
+	public static <T> void run(List<Callable<T>> tasks, int concurrency, BiConsumer<Integer, T> resultConsumer) {
+		if (tasks.isEmpty())
+			return;
+		if (concurrency <= 1 || tasks.size() == 1) {
+			for (int i = 0; i < tasks.size(); i++) {
+				try {
+					resultConsumer.accept(i, tasks.get(i).call());
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, tasks.size()), runnable -> {
+			var thread = new Thread(runnable, "concurrent-task-" + threadIndex.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			var completionService = new ExecutorCompletionService<T>(executor);
+			Map<Future<T>, Integer> futureIndexes = new HashMap<>();
+			List<Future<T>> futures = new ArrayList<>();
+			for (int i = 0; i < tasks.size(); i++) {
+				var future = completionService.submit(tasks.get(i));
+				futureIndexes.put(future, i);
+				futures.add(future);
+			}
+
+			Map<Integer, T> pendingResults = new HashMap<>();
+			var nextIndex = 0;
+			for (int i = 0; i < tasks.size(); i++) {
+				Future<T> future;
+				try {
+					future = completionService.take();
+				} catch (InterruptedException e) {
+					futures.forEach(it -> it.cancel(true));
+					throw new RuntimeException(e);
+				}
+				try {
+					pendingResults.put(futureIndexes.get(future), future.get());
+				} catch (ExecutionException | InterruptedException e) {
+					futures.forEach(it -> it.cancel(true));
+					while (pendingResults.containsKey(nextIndex)) {
+						resultConsumer.accept(nextIndex, pendingResults.remove(nextIndex));
+						nextIndex++;
+					}
+					var cause = e instanceof ExecutionException ? e.getCause() : e;
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					else if (cause instanceof Error)
+						throw (Error) cause;
+					else
+						throw new RuntimeException(cause);
+				}
+				while (pendingResults.containsKey(nextIndex)) {
+					resultConsumer.accept(nextIndex, pendingResults.remove(nextIndex));
+					nextIndex++;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Run tasks logging into their own buffered loggers. Buffered messages of each task are 
+	 * flushed to specified logger in task order, including those of failed tasks
+	 */
+	public static void run(List<Consumer<TaskLogger>> tasks, int concurrency, TaskLogger logger) {
+		List<BufferedTaskLogger> taskLoggers = new ArrayList<>();
+		List<Callable<Void>> loggingTasks = new ArrayList<>();
+		for (var task: tasks) {
+			var taskLogger = new BufferedTaskLogger();
+			taskLoggers.add(taskLogger);
+			loggingTasks.add(() -> {
+				task.accept(taskLogger);
+				return null;
+			});
+		}
+		try {
+			run(loggingTasks, concurrency, (index, result) -> taskLoggers.get(index).flushTo(logger));
+		} finally {
+			// Loggers already flushed are empty
+			for (var taskLogger: taskLoggers)
+				taskLogger.flushTo(logger);
+		}
+	}
+
+}
@@ -0,0 +1,124 @@
+package io.onedev.k8shelper;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Channel for step wrapper scripts to report status to sidecar over a fifo in the mark dir.
+ * Each report is a single line written atomically by the wrapper:
+ * <ul>
+ * <li><tt>started &lt;position&gt;</tt> when the step command is about to run
+ * <li><tt>finished &lt;position&gt; &lt;exit code&gt;</tt> when the step is done
+ * </ul>
+ * Times are taken when reports are received, as the channel has near zero latency
+ */
+public class ControlChannel {
+
+	private static final Logger logger = LoggerFactory.getLogger(ControlChannel.class);
+
+	private final Map<String, StepReport> reports = new ConcurrentHashMap<>();
+
+	private final Runnable listener;
+
+	private ControlChannel(Runnable listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Open channel of specified fifo. The fifo is deleted if it can not be opened, so that
+	 * wrapper scripts fall back to mark files
+	 *
+	 * @param listener called whenever a report is received
+	 * @return opened channel, or <tt>null</tt> if fifo does not exist or can not be opened
+	 */
+	@Nullable
+	public static ControlChannel open(File fifo, Runnable listener) {
+		if (!fifo.exists())
+			return null;
+		RandomAccessFile file;
+		try {
+			// Open for read and write so that the fifo never reaches end of file
+			file = new RandomAccessFile(fifo, "rw");
+		} catch (IOException e) {
+			logger.warn("Unable to open control fifo, steps will report via marks", e);
+			if (!fifo.delete())
+				logger.error("Unable to delete control fifo '" + fifo.getAbsolutePath() + "'");
+			return null;
+		}
+		var channel = new ControlChannel(listener);
+		var thread = new Thread(() -> channel.receive(file), "control-channel");
+		thread.setDaemon(true);
+		thread.start();
+		return channel;
+	}
+
+	private void receive(RandomAccessFile file) {
+		try (file; var reader = new BufferedReader(new InputStreamReader(new FileInputStream(file.getFD()), UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				var fields = line.trim().split("\\s+");
+				var now = System.currentTimeMillis();
+				if (fields.length == 2 && fields[0].equals("started")) {
+					reports.computeIfAbsent(fields[1], it -> new StepReport()).startTime = now;
+				} else if (fields.length == 3 && fields[0].equals("finished")) {
+					var report = reports.computeIfAbsent(fields[1], it -> new StepReport());
+					try {
+						report.exitCode = Integer.parseInt(fields[2]);
+					} catch (NumberFormatException e) {
+						report.exitCode = 1;
+					}
+					report.finishTime = now;
+				} else {
+					logger.warn("Ignoring invalid control message: " + line);
+					continue;
+				}
+				listener.run();
+			}
+		} catch (IOException e) {
+			logger.error("Error receiving control messages", e);
+		}
+	}
+
+	@Nullable
+	public StepReport getReport(String position) {
+		return reports.get(position);
+	}
+
+	public static class StepReport {
+
+		private volatile long startTime;
+
+		private volatile long finishTime;
+
+		private volatile int exitCode;
+
+		public boolean isFinished() {
+			return finishTime != 0;
+		}
+
+		public int getExitCode() {
+			return exitCode;
+		}
+
+		/**
+		 * @return milliseconds the step command runs, or -1 if start of the step is not reported
+		 */
+		public long getDuration() {
+			return startTime != 0 && finishTime != 0 ? finishTime - startTime : -1;
+		}
+
+	}
+
+}
@@ -0,0 +1,79 @@
+package io.onedev.k8shelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * SSL socket factory counting created sockets into specified counter. As JDK only reuses
+ * kept-alive connections created by the same socket factory, a single instance should be
+ * shared by all connections to the same server
+ */
+public class CountingSSLSocketFactory extends SSLSocketFactory {
+
+	private final SSLSocketFactory delegate;
+
+	private final AtomicInteger createdSockets;
+
+	public CountingSSLSocketFactory(SSLSocketFactory delegate, AtomicInteger createdSockets) {
+		this.delegate = delegate;
+		this.createdSockets = createdSockets;
+	}
+
+	@Override
+	public String[] getDefaultCipherSuites() {
+		return delegate.getDefaultCipherSuites();
+	}
+
+	@Override
+	public String[] getSupportedCipherSuites() {
+		return delegate.getSupportedCipherSuites();
+	}
+
+	@Override
+	public Socket createSocket() throws IOException {
+		createdSockets.incrementAndGet();
+		return delegate.createSocket();
+	}
+
+	@Override
+	public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+		createdSockets.incrementAndGet();
+		return delegate.createSocket(s, host, port, autoClose);
+	}
+
+	@Override
+	public Socket createSocket(Socket s, InputStream consumed, boolean autoClose) throws IOException {
+		createdSockets.incrementAndGet();
+		return delegate.createSocket(s, consumed, autoClose);
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		createdSockets.incrementAndGet();
+		return delegate.createSocket(host, port);
+	}
+
+	@Override
+	public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+		createdSockets.incrementAndGet();
+		return delegate.createSocket(host, port, localHost, localPort);
+	}
+
+	@Override
+	public Socket createSocket(InetAddress host, int port) throws IOException {
+		createdSockets.incrementAndGet();
+		return delegate.createSocket(host, port);
+	}
+
+	@Override
+	public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+		createdSockets.incrementAndGet();
+		return delegate.createSocket(address, port, localAddress, localPort);
+	}
+
+}
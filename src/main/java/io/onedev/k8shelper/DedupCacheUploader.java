@@ -0,0 +1,196 @@
+package io.onedev.k8shelper;
+
+import static io.onedev.k8shelper.KubernetesHelper.AUTHORIZATION;
+import static io.onedev.k8shelper.KubernetesHelper.BEARER;
+import static io.onedev.k8shelper.KubernetesHelper.CACHE_UPLOAD_MODE_CHUNKS;
+import static io.onedev.k8shelper.KubernetesHelper.checkStatus;
+import static io.onedev.k8shelper.KubernetesHelper.writeInt;
+import static io.onedev.k8shelper.KubernetesHelper.writeString;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static javax.ws.rs.client.Entity.entity;
+import static javax.ws.rs.core.MediaType.APPLICATION_OCTET_STREAM;
+import static javax.ws.rs.core.MediaType.TEXT_PLAIN;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.commons.codec.binary.Hex;
+import org.glassfish.jersey.client.ClientProperties;
+import org.jspecify.annotations.Nullable;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+
+/**
+ * Uploads a cache stream as content defined chunks. Chunks are collected into batches of
+ * bounded size, server is asked which chunks of the batch are missing, and only those are
+ * sent. The ordered chunk list is posted as manifest at the end so that server can compose
+ * the cache from stored chunks. Used when server lists chunks mode in header
+ * {@link KubernetesHelper#CACHE_UPLOAD_MODES}. Endpoints used are relative to the cache
+ * upload target:
+ * <ul>
+ * <li>POST chunks/missing: body and response are new line separated chunk hashes
+ * <li>POST chunks: body is a sequence of chunk hash string, chunk length int, and chunk bytes
+ * <li>POST manifest: body is new line separated chunk hashes of the cache stream in order
+ * </ul>
+ */
+public class DedupCacheUploader implements ChunkingOutputStream.ChunkConsumer {
+
+	public static final String ENV_UPLOAD_MODE = "ONEDEV_CACHE_UPLOAD_MODE";
+
+	private static final int BATCH_SIZE = 32 * 1024 * 1024;
+
+	private final WebTarget target;
+
+	private final String accessToken;
+
+	private final int compressionLevel;
+
+	private final MessageDigest digest;
+
+	private final Map<String, byte[]> batch = new LinkedHashMap<>();
+
+	private final Set<String> storedHashes = new HashSet<>();
+
+	private final List<String> manifest = new ArrayList<>();
+
+	private long batchSize;
+
+	private long totalBytes;
+
+	private long uploadedBytes;
+
+	private int uploadedChunks;
+
+	/**
+	 * @param compressionLevel gzip level to compress chunk batches, or 0 to send them as is
+	 */
+	public DedupCacheUploader(WebTarget target, @Nullable String accessToken, int compressionLevel) {
+		this.target = target;
+		this.accessToken = accessToken;
+		this.compressionLevel = compressionLevel;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Whether chunked upload should be used given upload modes advertised by server
+	 */
+	public static boolean isEnabled(@Nullable String advertisedModes) {
+		var mode = System.getenv(ENV_UPLOAD_MODE);
+		if (mode == null || mode.equalsIgnoreCase(CACHE_UPLOAD_MODE_CHUNKS))
+			return CacheEncoding.isAccepted(advertisedModes, CACHE_UPLOAD_MODE_CHUNKS);
+		else
+			return false;
+	}
+
+	@Override
+	public void consume(byte[] buffer, int length) throws IOException {
+		digest.update(buffer, 0, length);
+		var hash = Hex.encodeHexString(digest.digest());
+		manifest.add(hash);
+		totalBytes += length;
+		if (!storedHashes.contains(hash) && !batch.containsKey(hash)) {
+			var chunk = new byte[length];
+			System.arraycopy(buffer, 0, chunk, 0, length);
+			batch.put(hash, chunk);
+			batchSize += length;
+			if (batchSize >= BATCH_SIZE)
+				flush();
+		}
+	}
+
+	private Invocation.Builder request(WebTarget target) {
+		var builder = target.request();
+		if (accessToken != null)
+			builder.header(AUTHORIZATION, BEARER + " " + accessToken);
+		return builder;
+	}
+
+	private void flush() {
+		if (batch.isEmpty())
+			return;
+
+		List<String> missingHashes;
+		var hashes = Joiner.on('\n').join(batch.keySet());
+		try (Response response = request(target.path("chunks/missing")).post(entity(hashes, TEXT_PLAIN))) {
+			checkStatus(response);
+			missingHashes = Splitter.on('\n').omitEmptyStrings().splitToList(response.readEntity(String.class));
+		}
+
+		if (!missingHashes.isEmpty()) {
+			var builder = request(target.path("chunks"));
+			builder.property(ClientProperties.REQUEST_ENTITY_PROCESSING, "CHUNKED");
+			if (compressionLevel != 0)
+				builder.header(CacheEncoding.HEADER, CacheEncoding.GZIP);
+			StreamingOutput output = it -> {
+				var os = TransferScheduler.get().meter(it);
+				var encodedOs = compressionLevel != 0 ? CacheEncoding.encode(os, compressionLevel) : os;
+				for (var hash: missingHashes) {
+					var chunk = batch.get(hash);
+					if (chunk == null)
+						throw new IllegalStateException("Unexpected chunk requested: " + hash);
+					writeString(encodedOs, hash);
+					writeInt(encodedOs, chunk.length);
+					encodedOs.write(chunk);
+				}
+				if (encodedOs != os)
+					encodedOs.close();
+			};
+			try (Response response = builder.post(entity(output, APPLICATION_OCTET_STREAM))) {
+				checkStatus(response);
+			}
+			for (var hash: missingHashes) {
+				uploadedBytes += batch.get(hash).length;
+				uploadedChunks++;
+			}
+		}
+		storedHashes.addAll(batch.keySet());
+		batch.clear();
+		batchSize = 0;
+	}
+
+	/**
+	 * Upload remaining chunks and post the manifest. Must be called after the chunking
+	 * stream is closed
+	 */
+	public void finish() {
+		flush();
+		var content = Joiner.on('\n').join(manifest);
+		try (Response response = request(target.path("manifest")).post(entity(content.getBytes(UTF_8), APPLICATION_OCTET_STREAM))) {
+			checkStatus(response);
+		}
+	}
+
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	public long getUploadedBytes() {
+		return uploadedBytes;
+	}
+
+	public int getTotalChunks() {
+		return manifest.size();
+	}
+
+	public int getUploadedChunks() {
+		return uploadedChunks;
+	}
+
+}
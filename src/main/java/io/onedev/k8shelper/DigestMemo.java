@@ -0,0 +1,165 @@
+package io.onedev.k8shelper;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent memo of file digests stored in build or workspace dir. Entries are keyed by
+ * digest algorithm, relative path, size, modification time and file key (inode on Unix), so
+ * that unchanged files are not digested again by later runs or other cache configs
+ */
+public class DigestMemo {
+
+	private static final Logger logger = LoggerFactory.getLogger(DigestMemo.class);
+
+	private static final String FILE_NAME = "digest-memo";
+
+	private static final int FORMAT_VERSION = 1;
+
+	private static final int MAX_ENTRIES = 100000;
+
+	// Files modified recently may be modified again without changing modification time
+	private static final long RACY_PERIOD = 2000;
+
+	private static final Map<File, DigestMemo> memos = new HashMap<>();
+
+	private final File file;
+
+	private final Map<String, String> entries = new LinkedHashMap<>();
+
+	private final Set<String> usedKeys = new HashSet<>();
+
+	private final AtomicInteger hits = new AtomicInteger();
+
+	private final AtomicInteger misses = new AtomicInteger();
+
+	private DigestMemo(File file) {
+		this.file = file;
+		read(file, entries);
+	}
+
+	private static void read(File file, Map<String, String> entries) {
+		if (file.exists()) {
+			Map<String, String> readEntries = new LinkedHashMap<>();
+			try (var is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+				if (is.readInt() == FORMAT_VERSION) {
+					var count = is.readInt();
+					for (int i = 0; i < count; i++)
+						readEntries.put(is.readUTF(), is.readUTF());
+				}
+				entries.putAll(readEntries);
+			} catch (IOException e) {
+				logger.warn("Error reading digest memo, ignoring", e);
+			}
+		}
+	}
+
+	/**
+	 * Get memo stored in specified dir. Same instance is returned for the same dir in current
+	 * process
+	 */
+	public static synchronized DigestMemo of(File dir) {
+		return memos.computeIfAbsent(new File(dir, FILE_NAME).getAbsoluteFile(), DigestMemo::new);
+	}
+
+	/**
+	 * @return memo key of specified file, or <tt>null</tt> if the file is modified too
+	 * recently to be memorized
+	 */
+	@Nullable
+	public static String getKey(String algorithm, String relativePath, BasicFileAttributes attrs) {
+		var lastModified = attrs.lastModifiedTime().toMillis();
+		if (System.currentTimeMillis() - lastModified < RACY_PERIOD)
+			return null;
+		return algorithm + "\0" + relativePath + "\0" + attrs.size() + "\0" + lastModified + "\0" + attrs.fileKey();
+	}
+
+	@Nullable
+	public synchronized String get(String key) {
+		var digest = entries.get(key);
+		if (digest != null)
+			usedKeys.add(key);
+		return digest;
+	}
+
+	public synchronized void put(String key, String digest) {
+		entries.put(key, digest);
+		usedKeys.add(key);
+	}
+
+	public AtomicInteger getHits() {
+		return hits;
+	}
+
+	public AtomicInteger getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Persist the memo. Entries used by current process are kept first, followed by other
+	 * known entries and entries saved by other processes since loaded, until max entries is
+	 * reached. Saves of different processes are serialized via a lock file
+	 */
+	public synchronized void save() {
+		var lockFile = new File(file.getParentFile(), file.getName() + ".lock");
+		try (var lockChannel = FileChannel.open(lockFile.toPath(), CREATE, WRITE);
+				var lock = lockChannel.lock()) {
+			Map<String, String> savedEntries = new LinkedHashMap<>();
+			read(file, savedEntries);
+
+			var keys = new LinkedHashMap<String, String>();
+			for (var key: usedKeys)
+				keys.put(key, entries.get(key));
+			for (var entry: entries.entrySet()) {
+				if (keys.size() >= MAX_ENTRIES)
+					break;
+				keys.putIfAbsent(entry.getKey(), entry.getValue());
+			}
+			for (var entry: savedEntries.entrySet()) {
+				if (keys.size() >= MAX_ENTRIES)
+					break;
+				keys.putIfAbsent(entry.getKey(), entry.getValue());
+			}
+
+			var tempFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+			try {
+				try (var os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile.toPath())))) {
+					os.writeInt(FORMAT_VERSION);
+					os.writeInt(keys.size());
+					for (var entry: keys.entrySet()) {
+						os.writeUTF(entry.getKey());
+						os.writeUTF(entry.getValue());
+					}
+				}
+				Files.move(tempFile.toPath(), file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tempFile.toPath());
+			}
+		} catch (IOException e) {
+			logger.warn("Error saving digest memo", e);
+		}
+	}
+
+}
@@ -0,0 +1,279 @@
+package io.onedev.k8shelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Matches relative paths against ant style exclude patterns, where "**" matches any number
+ * of directories, "*" matches any characters inside a path segment, and "?" matches a single
+ * character. A pattern ending with "/" matches everything under the directory.
+ * <p>
+ * Patterns are compiled into a trie of path segments, and paths are matched segment by
+ * segment via {@link State}, so that a walk only matches names of visited entries against
+ * states of their parents, and skips directories whose subtrees are excluded entirely
+ */
+public class ExcludeMatcher {
+
+	private static final Map<List<String>, ExcludeMatcher> matchers = new ConcurrentHashMap<>();
+
+	private final Node root = new Node(false);
+
+	private final State start;
+
+	public ExcludeMatcher(Collection<String> excludes) {
+		for (var exclude: excludes) {
+			exclude = exclude.trim().replace('\\', '/');
+			while (exclude.startsWith("/"))
+				exclude = exclude.substring(1);
+			if (exclude.endsWith("/"))
+				exclude += "**";
+			if (exclude.length() != 0)
+				add(exclude);
+		}
+		start = new State(closure(List.of(root)));
+	}
+
+	/**
+	 * Get matcher of specified excludes. Matchers are compiled once per distinct excludes in
+	 * current process
+	 */
+	public static ExcludeMatcher of(List<String> excludes) {
+		return matchers.computeIfAbsent(List.copyOf(excludes), ExcludeMatcher::new);
+	}
+
+	private void add(String pattern) {
+		var node = root;
+		for (var segment: pattern.split("/+")) {
+			if (segment.equals("**")) {
+				if (node.doubleStar == null)
+					node.doubleStar = new Node(true);
+				node = node.doubleStar;
+			} else if (segment.indexOf('*') != -1 || segment.indexOf('?') != -1) {
+				var regex = toRegex(segment);
+				Node child = null;
+				for (var wildcard: node.wildcards) {
+					if (wildcard.getLeft().pattern().equals(regex))
+						child = wildcard.getRight();
+				}
+				if (child == null) {
+					child = new Node(false);
+					node.wildcards.add(Pair.of(Pattern.compile(regex), child));
+				}
+				node = child;
+			} else {
+				node = node.literals.computeIfAbsent(segment, it -> new Node(false));
+			}
+		}
+		node.terminal = true;
+	}
+
+	private static String toRegex(String segment) {
+		var regex = new StringBuilder();
+		for (var c: segment.toCharArray()) {
+			if (c == '*')
+				regex.append("[^/]*");
+			else if (c == '?')
+				regex.append("[^/]");
+			else
+				regex.append(Pattern.quote(String.valueOf(c)));
+		}
+		return regex.toString();
+	}
+
+	private static Node[] closure(Collection<Node> nodes) {
+		Set<Node> closure = new LinkedHashSet<>();
+		for (var node: nodes) {
+			// "**" also matches zero segments
+			while (node != null && closure.add(node))
+				node = node.doubleStar;
+		}
+		return closure.toArray(new Node[0]);
+	}
+
+	/**
+	 * @return state of the matching base
+	 */
+	public State start() {
+		return start;
+	}
+
+	/**
+	 * @param path path relative to the matching base, with "/" as separator
+	 */
+	public boolean isExcluded(String path) {
+		var state = start;
+		for (var segment: path.split("/")) {
+			state = state.next(segment);
+			if (state.nodes.length == 0)
+				return false;
+		}
+		return state.isExcluded();
+	}
+
+	/**
+	 * Walk entries under specified dir not excluded, with parent directories visited before
+	 * their children. Subtrees excluded entirely are not descended into, and entries removed
+	 * while walking are ignored
+	 */
+	public void walk(File dir, Visitor visitor) {
+		if (!dir.exists())
+			return;
+		var basePath = dir.toPath();
+		var states = new ArrayDeque<Pair<State, String>>();
+		try {
+			Files.walkFileTree(basePath, new SimpleFileVisitor<>() {
+
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+					if (states.isEmpty()) {
+						states.push(Pair.of(start, ""));
+						return FileVisitResult.CONTINUE;
+					}
+					var parent = states.peek();
+					var name = dir.getFileName().toString();
+					var state = parent.getLeft().next(name);
+					if (state.isSubtreeExcluded())
+						return FileVisitResult.SKIP_SUBTREE;
+					var relativePath = parent.getRight().length() != 0 ? parent.getRight() + "/" + name : name;
+					if (!state.isExcluded() && !visitor.visit(dir, relativePath, attrs))
+						return FileVisitResult.TERMINATE;
+					states.push(Pair.of(state, relativePath));
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+					if (exc != null && !(exc instanceof NoSuchFileException))
+						throw exc;
+					states.pop();
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					var parent = states.peek();
+					if (parent == null) {
+						// Specified dir is a file
+						return visitor.visit(file, "", attrs) ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+					}
+					var name = file.getFileName().toString();
+					if (parent.getLeft().next(name).isExcluded())
+						return FileVisitResult.CONTINUE;
+					var relativePath = parent.getRight().length() != 0 ? parent.getRight() + "/" + name : name;
+					return visitor.visit(file, relativePath, attrs) ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+					if (exc instanceof NoSuchFileException)
+						return FileVisitResult.CONTINUE;
+					throw exc;
+				}
+
+			});
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public interface Visitor {
+
+		/**
+		 * @param relativePath path relative to the walked dir, with "/" as separator
+		 * @return <tt>false</tt> to stop walking
+		 */
+		boolean visit(Path path, String relativePath, BasicFileAttributes attrs) throws IOException;
+
+	}
+
+	/**
+	 * Matching state of a path, with which states of its children can be calculated
+	 */
+	public static class State {
+
+		private final Node[] nodes;
+
+		private State(Node[] nodes) {
+			this.nodes = nodes;
+		}
+
+		/**
+		 * @param segment name of a child of current path
+		 */
+		public State next(String segment) {
+			if (nodes.length == 0)
+				return this;
+			var nextNodes = new ArrayList<Node>();
+			for (var node: nodes) {
+				// "**" consumes any segment and stays
+				if (node.inDoubleStar)
+					nextNodes.add(node);
+				var child = node.literals.get(segment);
+				if (child != null)
+					nextNodes.add(child);
+				for (var wildcard: node.wildcards) {
+					if (wildcard.getLeft().matcher(segment).matches())
+						nextNodes.add(wildcard.getRight());
+				}
+			}
+			return new State(closure(nextNodes));
+		}
+
+		public boolean isExcluded() {
+			for (var node: nodes) {
+				if (node.terminal)
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * @return whether all descendants of current path are excluded
+		 */
+		public boolean isSubtreeExcluded() {
+			for (var node: nodes) {
+				if (node.inDoubleStar && node.terminal)
+					return true;
+			}
+			return false;
+		}
+
+	}
+
+	private static class Node {
+
+		final boolean inDoubleStar;
+
+		final Map<String, Node> literals = new HashMap<>();
+
+		final List<Pair<Pattern, Node>> wildcards = new ArrayList<>();
+
+		Node doubleStar;
+
+		boolean terminal;
+
+		Node(boolean inDoubleStar) {
+			this.inDoubleStar = inDoubleStar;
+		}
+
+	}
+
+}
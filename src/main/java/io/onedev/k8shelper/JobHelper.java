@@ -3,15 +3,17 @@ package io.onedev.k8shelper;
 import static io.onedev.k8shelper.KubernetesHelper.GIT_TRUST_ALL_DIRS;
 import static io.onedev.k8shelper.KubernetesHelper.LOG_END_MESSAGE;
 import static io.onedev.k8shelper.KubernetesHelper.WORKDIR;
-import static io.onedev.k8shelper.KubernetesHelper.buildRestClient;
 import static io.onedev.k8shelper.KubernetesHelper.buildSSLFactory;
 import static io.onedev.k8shelper.KubernetesHelper.changeOwner;
 import static io.onedev.k8shelper.KubernetesHelper.checkStatus;
 import static io.onedev.k8shelper.KubernetesHelper.cloneRepository;
+import static io.onedev.k8shelper.KubernetesHelper.formatDuration;
+import static io.onedev.k8shelper.KubernetesHelper.getRestClient;
 import static io.onedev.k8shelper.KubernetesHelper.initRepository;
 import static io.onedev.k8shelper.KubernetesHelper.newCacheProvisioner;
 import static io.onedev.k8shelper.KubernetesHelper.newErrorLogger;
 import static io.onedev.k8shelper.KubernetesHelper.newInfoLogger;
+import static io.onedev.k8shelper.KubernetesHelper.parsePlaceholders;
 import static io.onedev.k8shelper.KubernetesHelper.readInt;
 import static io.onedev.k8shelper.KubernetesHelper.readPlaceholderValues;
 import static io.onedev.k8shelper.KubernetesHelper.readString;
@@ -20,6 +22,8 @@ import static io.onedev.k8shelper.KubernetesHelper.setupGitCerts;
 import static io.onedev.k8shelper.KubernetesHelper.writeInt;
 import static io.onedev.k8shelper.KubernetesHelper.writeString;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
 import static java.util.Arrays.stream;
 import static java.util.Base64.getEncoder;
 import static java.util.stream.Collectors.joining;
@@ -34,12 +38,21 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.Entity;
@@ -64,7 +77,6 @@ import io.onedev.commons.utils.ExceptionUtils;
 import io.onedev.commons.utils.ExplicitException;
 import io.onedev.commons.utils.FileUtils;
 import io.onedev.commons.utils.StringUtils;
-import io.onedev.commons.utils.TarUtils;
 import io.onedev.commons.utils.TaskLogger;
 import io.onedev.commons.utils.command.Commandline;
 import io.onedev.commons.utils.command.LineConsumer;
@@ -73,6 +85,8 @@ import nl.altindag.ssl.SSLFactory;
 public class JobHelper {
 			
 	public static final String ENV_JOB_TOKEN = "ONEDEV_JOB_TOKEN";
+
+	public static final String ENV_CACHE_UPLOAD_TIME_BUDGET = "ONEDEV_CACHE_UPLOAD_TIME_BUDGET";
 		
 	public static final String PAUSE = "pause";
 
@@ -127,11 +141,39 @@ public class JobHelper {
 
 			File scriptFile = new File(commandDir, positionStr + ".sh");
 			String markPrefix = getMarkDir().getAbsolutePath() + "/" + positionStr;
+			String waitCondition = "[ ! -f " + markPrefix + ".start ] && [ ! -f " + markPrefix + ".skip ] && [ ! -f " + markPrefix + ".error ]";
+			String signalFifo = markPrefix + ".signal";
+			String controlFifo = getControlFifo().getAbsolutePath();
 			List<String> wrapperScriptContent = Lists.newArrayList(
-					"while [ ! -f " + markPrefix + ".start ] && [ ! -f " + markPrefix + ".skip ] && [ ! -f " + markPrefix + ".error ]",
-					"do",
-					"  sleep 0.1",
-					"done",
+					// Report step status over control fifo, or via marks if control fifo is not available
+					"onedev_report() {",
+					"  if [ -p " + controlFifo + " ] && [ -w " + controlFifo + " ]",
+					"  then",
+					"    echo \"$1 " + positionStr + " $2\" 1<> " + controlFifo,
+					"  elif [ \"$1\" = finished ] && [ \"$2\" -eq 0 ]",
+					"  then",
+					"    touch " + markPrefix + ".successful",
+					"  elif [ \"$1\" = finished ]",
+					"  then",
+					"    touch " + markPrefix + ".failed",
+					"  fi",
+					"}",
+					// Block on signal fifo opened for read and write, so that sidecar never blocks 
+					// writing to it. Marks are checked after opening the fifo to not miss signals 
+					"if [ -p " + signalFifo + " ] && [ -r " + signalFifo + " ] && [ -w " + signalFifo + " ]",
+					"then",
+					"  exec 3<> " + signalFifo,
+					"  while " + waitCondition,
+					"  do",
+					"    read -r signal <&3",
+					"  done",
+					"  exec 3<&-",
+					"else",
+					"  while " + waitCondition,
+					"  do",
+					"    sleep 0.1",
+					"  done",
+					"fi",
 					"if [ -f " + markPrefix + ".skip ]",
 					"then",
 					"  echo '" + TaskLogger.wrapWithAnsiNotice("Step \"" + escapedStepPath + "\" is skipped") + "'",
@@ -142,24 +184,25 @@ public class JobHelper {
 					"then",
 					"  echo '" + TaskLogger.wrapWithAnsiNotice("Running step \"" + escapedStepPath + "\"...") + "'",
 					"  cat " + markPrefix + ".error",
-					"  touch " + markPrefix + ".failed",
+					"  onedev_report finished 1",
 					"  echo " + LOG_END_MESSAGE,
 					"  exit 0",
 					"fi",
 					"cd " + "'" + workingDir.getAbsolutePath() + "'",
 					"echo '" + TaskLogger.wrapWithAnsiNotice("Running step \"" + escapedStepPath + "\"...") + "'",
 					GIT_TRUST_ALL_DIRS,
+					"onedev_report started",
 					commandFacade.getExecutable() + " " + stream(commandFacade.getScriptOptions()).map(it -> it + " ").collect(joining()) + stepScriptFile.getAbsolutePath(),
 
 					"exitCode=\"$?\"",
 					"if [ $exitCode -eq 0 ]",
 					"then",
 					"  echo '" + TaskLogger.wrapWithAnsiSuccess("Step \"" + escapedStepPath + "\" is successful") + "'",
-					"  touch " + markPrefix + ".successful",
+					"  onedev_report finished 0",
 					"else",
 					"  echo \"" + TaskLogger.wrapWithAnsiError("Command exited with code $exitCode") + "\"",
 					"  echo '" + TaskLogger.wrapWithAnsiError("Step \"" + escapedStepPath + "\" is failed") + "'",
-					"  touch " + markPrefix + ".failed",
+					"  onedev_report finished $exitCode",
 					"fi",
 					"echo " + LOG_END_MESSAGE,
 					"exit 0");
@@ -174,7 +217,7 @@ public class JobHelper {
 		FileUtils.createDir(getCommandDir());
 		FileUtils.createDir(getMarkDir());
 		KubernetesJobData jobData;
-		Client client = buildRestClient(sslFactory);
+		Client client = getRestClient(sslFactory);
 		try {
 			WebTarget target = client.target(serverUrl)
 					.path("~api/worker/job-data")
@@ -194,8 +237,6 @@ public class JobHelper {
 			jobData = deserialize(jobDataBytes);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			client.close();
 		}
 		
 		File workDir = getWorkDir();
@@ -204,6 +245,7 @@ public class JobHelper {
 		logger.info("Generating command scripts...");
 		
 		CompositeFacade entryFacade = new CompositeFacade(jobData.getActions());
+		List<String> fifos = Lists.newArrayList(getControlFifo().getAbsolutePath());
 		entryFacade.traverse((LeafVisitor<Void>) (facade, position) -> {
 			String stepPath = entryFacade.getPathAsString(position);
 
@@ -240,16 +282,50 @@ public class JobHelper {
 			}
 
 			generateCommandScript(position, stepPath, commandFacade, workingDir);
+			fifos.add(getSignalFifo(positionStr).getAbsolutePath());
 
 			return null;
 		}, new ArrayList<>());
 		
+		createFifos(fifos);
+		
 		logger.info("Downloading job dependencies from {}...", serverUrl);
 		
 		downloadDependencies(serverUrl, jobToken, workDir, sslFactory);
+		TransferStats.save(getBuildDir());
 		logger.info("Job working directory initialized");
 	}
 	
+	private static File getSignalFifo(String positionStr) {
+		return new File(getMarkDir(), positionStr + ".signal");
+	}
+	
+	private static File getControlFifo() {
+		return new File(getMarkDir(), "control");
+	}
+	
+	private static void createFifos(List<String> fifos) {
+		// Step containers may run as different users
+		var mkfifo = new Commandline("mkfifo");
+		mkfifo.addArgs("-m", "666");
+		mkfifo.addArgs(fifos.toArray(new String[0]));
+		try {
+			mkfifo.execute(new LineConsumer() {
+				@Override
+				public void consume(String line) {
+					logger.info(line);
+				}
+			}, new LineConsumer() {
+				@Override
+				public void consume(String line) {
+					logger.warn(line);
+				}
+			}).checkReturnCode();
+		} catch (Exception e) {
+			logger.warn("Unable to create step fifos, steps will communicate via marks", e);
+		}
+	}
+	
 	public static String stringifyStepPosition(List<Integer> stepPosition) {
 		return StringUtils.join(stepPosition, "-");
 	}
@@ -261,6 +337,32 @@ public class JobHelper {
 				.collect(toList());
 	}
 	
+	private static PreparedStep prepareStep(List<Integer> position) throws IOException {
+		String positionStr = stringifyStepPosition(position);
+		File scriptFile = null;
+		for (File eachFile: getCommandDir().listFiles()) {
+			if (eachFile.getName().startsWith("step-" + positionStr + ".")) {
+				scriptFile = eachFile;
+				break;
+			}
+		}
+		Preconditions.checkState(scriptFile != null);
+		
+		String script = readFileToString(scriptFile, UTF_8);
+		var placeholders = parsePlaceholders(script);
+		var placeholderValues = readPlaceholderValues(getBuildDir(), placeholders);
+		// Resolved script is only written when the step is handed off, so that the template 
+		// can be prepared again if placeholder values change
+		String resolvedScript;
+		try {
+			resolvedScript = replacePlaceholders(script, placeholderValues);
+		} catch (ExplicitException e) {
+			// Placeholder files may not be written by preceding steps yet
+			resolvedScript = null;
+		}
+		return new PreparedStep(scriptFile, script, placeholders, placeholderValues, resolvedScript);
+	}
+	
 	private static KubernetesJobData readJobData() {
 		byte[] jobDataBytes;
 		try {
@@ -272,33 +374,77 @@ public class JobHelper {
 	}
 	
 	public static boolean sidecar(String serverUrl, String jobToken) {
+		var markWatcher = new MarkWatcher(getMarkDir());
+		var controlChannel = ControlChannel.open(getControlFifo(), markWatcher::wakeUp);
+		// Steps of parallel groups are executed concurrently
+		var buildDirLock = new Object();
+		// Owner of all files in build dir, or null if unknown
+		var buildDirOwner = new AtomicReference<String>();
+		// Number of running steps of each owner, guarded by build dir lock
+		Map<String, Integer> activeOwners = new HashMap<>();
+		Map<List<Integer>, Future<PreparedStep>> preparations = new ConcurrentHashMap<>();
+		var preparer = Executors.newSingleThreadExecutor(runnable -> {
+			var thread = new Thread(runnable, "step-preparer");
+			thread.setDaemon(true);
+			return thread;
+		});
 		LeafHandler commandHandler = new LeafHandler() {
 
+			@Override
+			public void prepare(LeafFacade facade, List<Integer> position) {
+				preparations.computeIfAbsent(position, it -> preparer.submit(() -> prepareStep(position)));
+			}
+			
 			@Override
 			public boolean execute(LeafFacade facade, List<Integer> position) {
 				String positionStr = stringifyStepPosition(position);
+				var owner = facade instanceof CommandFacade? ((CommandFacade) facade).getRunAs(): "0:0";
+				var active = false;
 				File file;
-				File stepScriptFile = null;
-				for (File eachFile: getCommandDir().listFiles()) {
-					if (eachFile.getName().startsWith("step-" + positionStr + ".")) {
-						stepScriptFile = eachFile;
-						break;
-					}
-				}
-				Preconditions.checkState(stepScriptFile != null);
-
 				try {
-					String stepScript = readFileToString(stepScriptFile, UTF_8);
-
-					if (facade instanceof CommandFacade) {
-						CommandFacade commandFacade = (CommandFacade) facade;
-						commandFacade.generatePauseCommand(getBuildDir());
-						if (!commandFacade.getRunAs().equals("0:0"))
-							changeOwner(getBuildDir(), commandFacade.getRunAs(), true);
+					PreparedStep preparedStep = null;
+					var preparation = preparations.remove(position);
+					if (preparation != null) {
+						try {
+							preparedStep = preparation.get();
+						} catch (ExecutionException e) {
+							logger.warn("Error preparing step " + positionStr + ", preparing again", e.getCause());
+						}
+					}
+					if (preparedStep == null)
+						preparedStep = prepareStep(position);
+
+					synchronized (buildDirLock) {
+						if (facade instanceof CommandFacade) 
+							((CommandFacade) facade).generatePauseCommand(getBuildDir());
+						// Files created since last chown are still owned by the same user if 
+						// only steps running as this user are executed since then
+						if (owner.equals("0:0")) {
+							buildDirOwner.set(null);
+						} else {
+							// Recursive chown should not take away files from running steps 
+							// of other owners, so wait for them to finish
+							while (!owner.equals(buildDirOwner.get()) 
+									&& activeOwners.keySet().stream().anyMatch(it -> !it.equals(owner))) {
+								buildDirLock.wait();
+							}
+							if (!owner.equals(buildDirOwner.get())) {
+								changeOwner(getBuildDir(), owner, true);
+								buildDirOwner.set(owner);
+							}
+						}
+						activeOwners.merge(owner, 1, Integer::sum);
+						active = true;
 					}
 
-					stepScript = replacePlaceholders(stepScript, getBuildDir());
-					FileUtils.writeFile(stepScriptFile, stepScript, UTF_8);
+					// Placeholder files may be written by preceding steps after preparation
+					var placeholderValues = readPlaceholderValues(getBuildDir(), preparedStep.placeholders);
+					String stepScript;
+					if (preparedStep.resolvedScript != null && placeholderValues.equals(preparedStep.placeholderValues)) 
+						stepScript = preparedStep.resolvedScript;
+					else 
+						stepScript = replacePlaceholders(preparedStep.script, placeholderValues);
+					FileUtils.writeFile(preparedStep.scriptFile, stepScript, UTF_8);
 					
 					file = new File(getMarkDir(), positionStr + ".start");
 					if (!file.createNewFile()) 
@@ -315,45 +461,139 @@ public class JobHelper {
 					errorMessage += "\n";
 					FileUtils.writeFile(file, errorMessage, UTF_8);
 				}
+				MarkWatcher.signal(getSignalFifo(positionStr));
 			
 				File successfulFile = new File(getMarkDir(), positionStr + ".successful");
 				File failedFile = new File(getMarkDir(), positionStr + ".failed");
-				while (!successfulFile.exists() && !failedFile.exists()) {
-					try {
-						Thread.sleep(100);
-					} catch (InterruptedException e) {
-						throw new RuntimeException(e);
+				try {
+					return markWatcher.await(() -> {
+						var report = controlChannel != null? controlChannel.getReport(positionStr): null;
+						if (report != null && report.isFinished()) {
+							if (report.getDuration() != -1) {
+								logger.info("Step {} exited with code {} after {} ms", positionStr, 
+										report.getExitCode(), report.getDuration());
+							} else {
+								logger.info("Step {} exited with code {}", positionStr, report.getExitCode());
+							}
+							return report.getExitCode() == 0;
+						} else if (successfulFile.exists()) {
+							return true;
+						} else if (failedFile.exists()) {
+							return false;
+						} else {
+							return null;
+						}
+					});
+				} finally {
+					// Files created by this step are not owned by owner of build dir
+					synchronized (buildDirLock) {
+						if (!owner.equals(buildDirOwner.get()))
+							buildDirOwner.set(null);
+						if (active) {
+							activeOwners.computeIfPresent(owner, (key, count) -> count > 1? count - 1: null);
+							buildDirLock.notifyAll();
+						}
 					}
 				}
-				return successfulFile.exists();
 			}
 
 			@Override
 			public void skip(LeafFacade facade, List<Integer> position) {
-				File file = new File(getMarkDir(), stringifyStepPosition(position) + ".skip");
+				String positionStr = stringifyStepPosition(position);
+				File file = new File(getMarkDir(), positionStr + ".skip");
 				try {
 					if (!file.createNewFile()) 
 						throw new RuntimeException("Failed to create file: " + file.getAbsolutePath());
 				} catch (IOException e) {
 					throw new RuntimeException(e);
 				}
+				MarkWatcher.signal(getSignalFifo(positionStr));
 			}
 			
 		};
 		
+		var timeline = new StepTimeline();
+		LeafHandler timedHandler = new LeafHandler() {
+
+			@Override
+			public void prepare(LeafFacade facade, List<Integer> position) {
+				commandHandler.prepare(facade, position);
+			}
+			
+			@Override
+			public boolean execute(LeafFacade facade, List<Integer> position) {
+				var startTime = System.currentTimeMillis();
+				try {
+					return commandHandler.execute(facade, position);
+				} finally {
+					timeline.record(position, startTime, System.currentTimeMillis());
+				}
+			}
+
+			@Override
+			public void skip(LeafFacade facade, List<Integer> position) {
+				commandHandler.skip(facade, position);
+			}
+
+		};
+		
 		var jobData = readJobData();
-		var actions = jobData.getActions();
+		var entryFacade = new CompositeFacade(jobData.getActions());
 
-		var successful = new CompositeFacade(actions).execute(commandHandler, new ArrayList<>());
+		var successful = entryFacade.execute(timedHandler, new ArrayList<>());
+		preparer.shutdownNow();
+		
+		var criticalPath = timeline.getCriticalPath(entryFacade);
+		if (!criticalPath.isEmpty()) {
+			logger.info("Critical path: " + criticalPath.stream()
+					.map(it -> entryFacade.getPathAsString(it) + " (" + formatDuration(timeline.getDuration(it)) + ")")
+					.collect(joining(" -> ")));
+		}
 
 		if (successful) {
 			var cacheProvisioners = readCacheProvisioners();
-			for (var cacheProvisioner : cacheProvisioners) {
-				cacheProvisioner.upload(getBuildDir(), newInfoTaskLogger());
+			var uploadTimeBudget = KubernetesHelper.getIntEnv(ENV_CACHE_UPLOAD_TIME_BUDGET, 0);
+			if (uploadTimeBudget > 0 && !cacheProvisioners.isEmpty()) {
+				uploadCachesWithinBudget(cacheProvisioners, uploadTimeBudget);
+			} else {
+				for (var cacheProvisioner : cacheProvisioners) {
+					cacheProvisioner.upload(getBuildDir(), newInfoTaskLogger());
+				}
 			}
+			TransferStats.save(getBuildDir());
 		}
 		return successful;
 	}
+
+	/**
+	 * Upload caches within specified time budget. Job result is decided before upload, and 
+	 * upload failures or timeout are only logged 
+	 */
+	private static void uploadCachesWithinBudget(List<CacheProvisioner> cacheProvisioners, int timeBudget) {
+		logger.info("Job steps successful, uploading caches within {} seconds...", timeBudget);
+		var executor = Executors.newSingleThreadExecutor(runnable -> {
+			var thread = new Thread(runnable, "cache-upload");
+			thread.setDaemon(true);
+			return thread;
+		});
+		var future = executor.submit(() -> {
+			for (var cacheProvisioner : cacheProvisioners)
+				cacheProvisioner.upload(getBuildDir(), newInfoTaskLogger());
+		});
+		try {
+			future.get(timeBudget, TimeUnit.SECONDS);
+			logger.info("Cache upload finished");
+		} catch (TimeoutException e) {
+			logger.warn("Cache upload not finished within {} seconds, abandoned", timeBudget);
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			logger.warn(TaskLogger.wrapWithAnsiWarning(
+					"Cache upload failed: " + TaskLogger.toString(null, e.getCause())));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
 		
 	static void checkoutCode(String serverUrl, String jobToken, String positionStr,
 			boolean withLfs, boolean withSubmodules, int cloneDepth, CloneInfo cloneInfo, 
@@ -433,43 +673,43 @@ public class JobHelper {
 												 List<Integer> position, File baseDir,
 												 Collection<String> includeFiles, Collection<String> excludeFiles,
 												 Map<String, String> placeholderValues, TaskLogger logger) {
-		Client client = buildRestClient(sslFactory);
-		client.property(ClientProperties.REQUEST_ENTITY_PROCESSING, "CHUNKED");
-		try {
-			WebTarget target = client.target(serverUrl)
-					.path("~api/worker/run-server-step")
-					.queryParam("token", jobToken);
-			Invocation.Builder builder = target.request();
-
-			StreamingOutput output = os -> {
-				writeInt(os, position.size());
-				for (int each : position)
-					writeInt(os, each);
-
-				writeInt(os, placeholderValues.size());
-				for (Map.Entry<String, String> entry : placeholderValues.entrySet()) {
-					writeString(os, entry.getKey());
-					writeString(os, entry.getValue());
-				}
+		Client client = getRestClient(sslFactory);
+		WebTarget target = client.target(serverUrl)
+				.path("~api/worker/run-server-step")
+				.queryParam("token", jobToken);
+		Invocation.Builder builder = target.request();
+		builder.property(ClientProperties.REQUEST_ENTITY_PROCESSING, "CHUNKED");
+
+		StreamingOutput output = os -> {
+			writeInt(os, position.size());
+			for (int each : position)
+				writeInt(os, each);
+
+			writeInt(os, placeholderValues.size());
+			for (Map.Entry<String, String> entry : placeholderValues.entrySet()) {
+				writeString(os, entry.getKey());
+				writeString(os, entry.getValue());
+			}
 
-				TarUtils.tar(baseDir, includeFiles, excludeFiles, os, false);
-			};
+			var basePath = baseDir.toPath();
+			var paths = FileUtils.listFiles(baseDir, includeFiles, excludeFiles).stream()
+					.map(it -> CacheManifest.getRelativePath(basePath, it.toPath()))
+					.collect(Collectors.toList());
+			TarWriter.write(baseDir, paths, os);
+		};
 
-			try (Response response = builder.post(Entity.entity(output, MediaType.APPLICATION_OCTET_STREAM))) {
-				checkStatus(response);
-				try (InputStream is = response.readEntity(InputStream.class)) {
-					while (readInt(is) == 1) {
-						logger.log(readString(is));
-					}
-					byte[] bytes = new byte[readInt(is)];
-					IOUtils.readFully(is, bytes);
-					return deserialize(bytes);
-				} catch (IOException e) {
-					throw new RuntimeException(e);
+		try (Response response = builder.post(Entity.entity(output, MediaType.APPLICATION_OCTET_STREAM))) {
+			checkStatus(response);
+			try (InputStream is = response.readEntity(InputStream.class)) {
+				while (readInt(is) == 1) {
+					logger.log(readString(is));
 				}
+				byte[] bytes = new byte[readInt(is)];
+				IOUtils.readFully(is, bytes);
+				return deserialize(bytes);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
 			}
-		} finally {
-			client.close();
 		}
 	}
 
@@ -515,7 +755,6 @@ public class JobHelper {
 		var position = parseStepPosition(positionStr);
 		var entryFacade = new CompositeFacade(readJobData().getActions());
 		var cacheConfig = ((SetupCacheFacade) entryFacade.getFacade(position)).getCacheConfig();
-		var cacheProvisioners = readCacheProvisioners();
 		var cacheProvisioner = newCacheProvisioner(serverUrl, "~api/worker/job-cache", 
 				jobToken, cacheConfig, getTrustCertsDir(), getCacheConfigIndex(entryFacade, position));
 		cacheProvisioner.download(getBuildDir(), new TaskLogger() {
@@ -526,33 +765,67 @@ public class JobHelper {
 			}
 
 		});
-		cacheProvisioners.add(cacheProvisioner);
-		writeCacheProvisioners(cacheProvisioners);
+		TransferStats.save(getBuildDir());
+
+		// Cache setup steps may run concurrently in parallel groups
+		var lockFile = new File(getMarkDir(), "cache-provisioners.lock").toPath();
+		try (var channel = FileChannel.open(lockFile, CREATE, WRITE); var lock = channel.lock()) {
+			var cacheProvisioners = readCacheProvisioners();
+			cacheProvisioners.add(cacheProvisioner);
+			writeCacheProvisioners(cacheProvisioners);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	public static void downloadDependencies(String serverUrl, String jobToken,
 											File targetDir, SSLFactory sslFactory) {
-		Client client = buildRestClient(sslFactory);
-		try {
-			WebTarget target = client.target(serverUrl)
-					.path("~api/worker/dependencies")
-					.queryParam("token", jobToken);
-			Invocation.Builder builder =  target.request();
+		Client client = getRestClient(sslFactory);
+		WebTarget target = client.target(serverUrl)
+				.path("~api/worker/dependencies")
+				.queryParam("token", jobToken);
+		Invocation.Builder builder =  target.request();
+		var stats = new TransferStats("dependencies-download", "job dependencies");
+		stats.record(() -> {
 			try (Response response = builder.get()){
 				checkStatus(response);
 				try (InputStream is = response.readEntity(InputStream.class)) {
-					TarUtils.untar(is, targetDir, false);
+					new TarExtractor(targetDir).extract(TransferScheduler.get().meter(is), 0);
 				} catch (IOException e) {
 					throw new RuntimeException(e);
 				}
 			}
-		} finally {
-			client.close();
-		}
+		});
+		newInfoTaskLogger().log("Downloaded job dependencies: " + stats.describe());
 	}
 
 	public static void logEndMessage(Logger logger) {
 		logger.info(LOG_END_MESSAGE);
 	}
 
+	private static class PreparedStep {
+		
+		final File scriptFile;
+		
+		// Step script with placeholders
+		final String script;
+		
+		final Collection<String> placeholders;
+		
+		final Map<String, String> placeholderValues;
+		
+		@Nullable
+		final String resolvedScript;
+		
+		PreparedStep(File scriptFile, String script, Collection<String> placeholders, 
+					 Map<String, String> placeholderValues, @Nullable String resolvedScript) {
+			this.scriptFile = scriptFile;
+			this.script = script;
+			this.placeholders = placeholders;
+			this.placeholderValues = placeholderValues;
+			this.resolvedScript = resolvedScript;
+		}
+		
+	}
+	
 }
@@ -6,7 +6,9 @@ import static javax.ws.rs.client.Entity.entity;
 import static javax.ws.rs.core.MediaType.APPLICATION_OCTET_STREAM;
 import static javax.ws.rs.core.Response.Status.NO_CONTENT;
 import static javax.ws.rs.core.Response.Status.OK;
+import static javax.ws.rs.core.Response.Status.PARTIAL_CONTENT;
 import static javax.ws.rs.core.Response.Status.UNAUTHORIZED;
+import static org.apache.commons.io.FileUtils.byteCountToDisplaySize;
 import static org.apache.commons.io.FileUtils.readFileToString;
 
 import java.io.ByteArrayOutputStream;
@@ -14,6 +16,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -21,12 +24,16 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Invocation;
@@ -35,8 +42,11 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.TeeInputStream;
 import org.apache.commons.lang3.time.DurationFormatUtils;
+import org.glassfish.jersey.client.ClientConfig;
 import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.HttpUrlConnectorProvider;
 import org.jspecify.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,7 +54,6 @@ import org.slf4j.LoggerFactory;
 import io.onedev.commons.utils.ExplicitException;
 import io.onedev.commons.utils.FileUtils;
 import io.onedev.commons.utils.StringUtils;
-import io.onedev.commons.utils.TarUtils;
 import io.onedev.commons.utils.TaskLogger;
 import io.onedev.commons.utils.command.Commandline;
 import io.onedev.commons.utils.command.LineConsumer;
@@ -70,6 +79,33 @@ public class KubernetesHelper {
 	
 	public static final String ATTRIBUTES = "attributes";
 	
+	public static final String CACHE_VERSION = "OneDevCacheVersion";
+
+	// Project of the cache reported by server, to scope entries of local cache tier
+	public static final String CACHE_PROJECT = "OneDevCacheProject";
+
+	public static final String CACHE_UPLOAD_MODES = "OneDevCacheUploadModes";
+
+	public static final String CACHE_UPLOAD_MODE_CHUNKS = "chunks";
+
+	public static final String CACHE_UPLOAD_MODE_DELTA = "delta";
+
+	public static final String ENV_CACHE_DOWNLOAD_RETRIES = "ONEDEV_CACHE_DOWNLOAD_RETRIES";
+
+	private static final int DEFAULT_CACHE_DOWNLOAD_RETRIES = 3;
+
+	private static final Map<String, SSLFactory> sslFactories = new HashMap<>();
+
+	private static final Map<SSLFactory, Client> restClients = new HashMap<>();
+
+	private static final Map<String, Boolean> cacheDeltaUploadSupports = new ConcurrentHashMap<>();
+
+	private static final AtomicInteger restRequests = new AtomicInteger();
+
+	private static final AtomicInteger restTlsRequests = new AtomicInteger();
+
+	private static final AtomicInteger restConnections = new AtomicInteger();
+
 	public static final String PLACEHOLDER_PREFIX = "<&onedev#";
 	
 	public static final String PLACEHOLDER_SUFFIX = "#onedev&>";
@@ -323,7 +359,16 @@ public class KubernetesHelper {
 		}
 	}
 
-	public static SSLFactory buildSSLFactory(File trustCertsDir) {
+	/**
+	 * Build SSL factory trusting certificates in specified dir. Factory is memorized per dir 
+	 * so that clients built from it can share TLS sessions and kept-alive connections
+	 */
+	public static synchronized SSLFactory buildSSLFactory(File trustCertsDir) {
+		return sslFactories.computeIfAbsent(trustCertsDir.getAbsolutePath(), 
+				it -> doBuildSSLFactory(trustCertsDir));
+	}
+
+	private static SSLFactory doBuildSSLFactory(File trustCertsDir) {
 		SSLFactory.Builder builder = SSLFactory.builder().withDefaultTrustMaterial();
 		if (trustCertsDir.exists()) {
 			for (var file : trustCertsDir.listFiles()) {
@@ -351,77 +396,330 @@ public class KubernetesHelper {
 	}
 
 	public static Client buildRestClient(@Nullable SSLFactory sslFactory) {
-		var builder = ClientBuilder.newBuilder();
+		var socketFactory = sslFactory != null 
+				? new CountingSSLSocketFactory(sslFactory.getSslSocketFactory(), restConnections) 
+				: null;
+		var connectorProvider = new HttpUrlConnectorProvider().connectionFactory(url -> {
+			restRequests.incrementAndGet();
+			var connection = (HttpURLConnection) url.openConnection();
+			if (socketFactory != null && connection instanceof HttpsURLConnection) {
+				restTlsRequests.incrementAndGet();
+				var httpsConnection = (HttpsURLConnection) connection;
+				httpsConnection.setSSLSocketFactory(socketFactory);
+				httpsConnection.setHostnameVerifier(sslFactory.getHostnameVerifier());
+			}
+			return connection;
+		});
+		var builder = ClientBuilder.newBuilder().withConfig(new ClientConfig().connectorProvider(connectorProvider));
 		if (sslFactory != null)
 			builder.sslContext(sslFactory.getSslContext()).hostnameVerifier(sslFactory.getHostnameVerifier());
 		return builder.build();
 	}
 
+	/**
+	 * Get rest client shared in current process for specified SSL factory. Shared client 
+	 * should not be closed, so that kept-alive connections can be reused across requests
+	 */
+	public static synchronized Client getRestClient(@Nullable SSLFactory sslFactory) {
+		if (restClients.isEmpty()) {
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				var requests = restRequests.get();
+				var tlsRequests = restTlsRequests.get();
+				if (tlsRequests != 0) {
+					// Only connections over custom SSL factory are counted, reuse of plain 
+					// connections is not known
+					var connections = restConnections.get();
+					logger.info("Rest requests: {}, TLS requests: {}, TLS connections created: {}, reused: {}", 
+							requests, tlsRequests, connections, Math.max(tlsRequests - connections, 0));
+				} else if (requests != 0) {
+					logger.info("Rest requests: {}", requests);
+				}
+			}));
+		}
+		return restClients.computeIfAbsent(sslFactory, KubernetesHelper::buildRestClient);
+	}
+
 	public static CacheAvailability downloadCache(String serverUrl, String apiPath, 
 			String token, String key, @Nullable String checksum, String path,
 			File cacheDir, @Nullable SSLFactory sslFactory) {
-		Client client = buildRestClient(sslFactory);
-		try {
-			WebTarget target = client.target(serverUrl)
-					.path(apiPath)
-					.queryParam("token", token)
-					.queryParam("key", key)
-					.queryParam("checksum", checksum)
-					.queryParam("path", path);
+		return downloadCache(serverUrl, apiPath, token, key, checksum, path, cacheDir, sslFactory, null);
+	}
+
+	/**
+	 * Download cache into specified dir. Transient transfer errors are retried, and interrupted 
+	 * streams are resumed with a range request of plain tar stream from the last extracted 
+	 * entry, as offset of tar stream can not be located in gzip encoded stream. If server does 
+	 * not support range requests, the stream is restarted with already extracted entries skipped
+	 * 
+	 * @param restored manifest to record version of the restored cache, if server reports it
+	 */
+	public static CacheAvailability downloadCache(String serverUrl, String apiPath, 
+			String token, String key, @Nullable String checksum, String path,
+			File cacheDir, @Nullable SSLFactory sslFactory, @Nullable CacheManifest restored) {
+		return downloadCache(serverUrl, apiPath, token, key, checksum, path, cacheDir, sslFactory, restored, null);
+	}
+
+	/**
+	 * @param localStore local cache tier to extract exact matched cache from if it has the 
+	 * same project and version, and to fill with exact matched cache downloaded from server. 
+	 * Server is probed with a range request of the availability byte first, so that cache is 
+	 * not streamed by server if it is available locally. The local tier is not used if server 
+	 * does not report project and version of the cache
+	 */
+	public static CacheAvailability downloadCache(String serverUrl, String apiPath, 
+			String token, String key, @Nullable String checksum, String path,
+			File cacheDir, @Nullable SSLFactory sslFactory, @Nullable CacheManifest restored, 
+			@Nullable LocalCacheStore localStore) {
+		Client client = getRestClient(sslFactory);
+		WebTarget target = client.target(serverUrl)
+				.path(apiPath)
+				.queryParam("token", token)
+				.queryParam("key", key)
+				.queryParam("checksum", checksum)
+				.queryParam("path", path);
+		var extractor = new TarExtractor(cacheDir, restored);
+		var retries = getIntEnv(ENV_CACHE_DOWNLOAD_RETRIES, DEFAULT_CACHE_DOWNLOAD_RETRIES);
+		var retried = 0;
+		CacheAvailability availability = null;
+		String encoding = null;
+		String version = null;
+		var scope = serverUrl + "/" + apiPath;
+		var probeLocalStore = localStore != null && checksum != null;
+		LocalCacheStore.EntryOutputStream localEntryOs = null;
+		while (true) {
 			Invocation.Builder builder = target.request();
+			var resume = availability != null && extractor.getResumeOffset() != 0;
+			if (!resume)
+				builder.header(CacheEncoding.HEADER, CacheEncoding.GZIP);
+			// First byte of the response is availability, and tar stream follows
+			if (probeLocalStore)
+				builder.header("Range", "bytes=0-0");
+			else if (resume)
+				builder.header("Range", "bytes=" + (extractor.getResumeOffset() + 1) + "-");
 			try (Response response = builder.get()) {
-				checkStatus(response);
+				var partial = response.getStatus() == PARTIAL_CONTENT.getStatusCode();
+				if (!partial)
+					checkStatus(response);
+				if (probeLocalStore) {
+					probeLocalStore = false;
+					if (partial) {
+						int probedAvailability;
+						try (InputStream is = response.readEntity(InputStream.class)) {
+							probedAvailability = is.read();
+						}
+						var probedVersion = response.getHeaderString(CACHE_VERSION);
+						var project = response.getHeaderString(CACHE_PROJECT);
+						if (probedAvailability == CacheAvailability.EXACT_MATCH.ordinal() 
+								&& probedVersion != null && project != null) {
+							try (var localIs = localStore.open(scope, project, key, checksum, path, probedVersion)) {
+								if (localIs != null) {
+									if (restored != null)
+										restored.setBaseVersion(probedVersion);
+									extractor.extract(localIs, 0);
+									return CacheAvailability.EXACT_MATCH;
+								}
+							}
+						}
+						continue;
+					}
+					// Server ignores the range, and the whole cache is in this response
+				}
+				if (availability != null) {
+					var currentVersion = response.getHeaderString(CACHE_VERSION);
+					if (version != null && !version.equals(currentVersion))
+						throw new ExplicitException("Cache changed on server while downloading, please retry");
+				} else {
+					version = response.getHeaderString(CACHE_VERSION);
+					if (restored != null)
+						restored.setBaseVersion(version);
+				}
 				try (InputStream is = response.readEntity(InputStream.class)) {
-					CacheAvailability availability = CacheAvailability.values()[is.read()];
-					if (availability != CacheAvailability.NOT_FOUND)
-						TarUtils.untar(is, cacheDir, false);
+					encoding = response.getHeaderString(CacheEncoding.HEADER);
+					long offset;
+					if (partial) {
+						offset = extractor.getResumeOffset();
+					} else {
+						availability = CacheAvailability.values()[is.read()];
+						offset = 0;
+						var project = response.getHeaderString(CACHE_PROJECT);
+						if (availability == CacheAvailability.EXACT_MATCH && localStore != null 
+								&& checksum != null && version != null && project != null && retried == 0) {
+							localEntryOs = localStore.create(scope, project, key, checksum, path, version);
+						}
+					}
+					if (availability != CacheAvailability.NOT_FOUND) {
+						var tarIs = CacheEncoding.decode(TransferScheduler.get().meter(is), encoding);
+						if (localEntryOs != null)
+							tarIs = new TeeInputStream(tarIs, localEntryOs);
+						extractor.extract(tarIs, offset);
+						if (localEntryOs != null)
+							localEntryOs.commit();
+					}
 					return availability;
-				} catch (IOException e) {
+				}
+			} catch (IOException | ProcessingException e) {
+				if (localEntryOs != null) {
+					// Only fill local tier with downloads not interrupted
+					localEntryOs.close();
+					localEntryOs = null;
+				}
+				if (retried++ >= retries)
 					throw new RuntimeException(e);
+				var resumeMessage = availability == null ? "restarting"
+						: String.format("resuming after %d extracted entries", extractor.getExtractedEntries());
+				logger.warn("Error downloading cache (key: {}, path: {}), {}: {}", 
+						key, path, resumeMessage, e.getMessage());
+				try {
+					Thread.sleep(1000L << Math.min(retried - 1, 5));
+				} catch (InterruptedException e2) {
+					throw new RuntimeException(e2);
 				}
 			}
-		} finally {
-			client.close();
 		}
 	}
 
+	/**
+	 * Check whether server supports delta cache upload. Result is remembered per server and 
+	 * api path once server answers
+	 */
+	public static boolean isCacheDeltaUploadSupported(String serverUrl, String apiPath, String token,
+			CacheConfigFacade cacheConfig, @Nullable SSLFactory sslFactory) {
+		var supported = cacheDeltaUploadSupports.get(serverUrl + "/" + apiPath);
+		if (supported != null)
+			return supported;
+		WebTarget target = getRestClient(sslFactory).target(serverUrl)
+				.path(apiPath)
+				.queryParam("token", token)
+				.queryParam("projectPath", cacheConfig.getUploadProjectPath());
+		Invocation.Builder builder = target.request();
+		var accessToken = cacheConfig.getUploadAccessToken();
+		if (accessToken != null)
+			builder.header(AUTHORIZATION, BEARER + " " + accessToken);
+		try (Response response = builder.head()) {
+			if (response.getStatus() != OK.getStatusCode())
+				return false;
+			supported = CacheEncoding.isAccepted(response.getHeaderString(CACHE_UPLOAD_MODES), CACHE_UPLOAD_MODE_DELTA);
+		} catch (ProcessingException e) {
+			return false;
+		}
+		cacheDeltaUploadSupports.put(serverUrl + "/" + apiPath, supported);
+		return supported;
+	}
+
 	public static boolean uploadCache(String serverUrl, String apiPath, String token,
 			CacheConfigFacade cacheConfig, String path, File cacheDir, List<String> excludes,
 			@Nullable SSLFactory sslFactory) {
+		return uploadCache(serverUrl, apiPath, token, cacheConfig, path, cacheDir, excludes, sslFactory, null);
+	}
+
+	/**
+	 * @param delta changes against the restored cache. If specified and server supports delta 
+	 * upload, only the changes will be uploaded 
+	 */
+	public static boolean uploadCache(String serverUrl, String apiPath, String token,
+			CacheConfigFacade cacheConfig, String path, File cacheDir, List<String> excludes,
+			@Nullable SSLFactory sslFactory, @Nullable CacheDelta delta) {
 		var key = cacheConfig.getKey();
 		var checksum = cacheConfig.getChecksum();
 		var projectPath = cacheConfig.getUploadProjectPath();
-		Client client = buildRestClient(sslFactory);
-		client.property(ClientProperties.REQUEST_ENTITY_PROCESSING, "CHUNKED");
-		try {
-			WebTarget target = client.target(serverUrl)
-					.path(apiPath)
-					.queryParam("token", token)
-					.queryParam("projectPath", projectPath);
-			Invocation.Builder builder = target.request();
-			var accessToken = cacheConfig.getUploadAccessToken();
-			if (accessToken != null)
-				builder.header(AUTHORIZATION, BEARER + " " + accessToken);
-			try (Response response = builder.head()) {
-				if (response.getStatus() == UNAUTHORIZED.getStatusCode())
-					return false;
-				checkStatus(response);
-			}
-
-			builder = target
-					.queryParam("key", key)
-					.queryParam("checksum", checksum)
-					.queryParam("path", path)
+		Client client = getRestClient(sslFactory);
+		WebTarget target = client.target(serverUrl)
+				.path(apiPath)
+				.queryParam("token", token)
+				.queryParam("projectPath", projectPath);
+		Invocation.Builder builder = target.request();
+		var accessToken = cacheConfig.getUploadAccessToken();
+		if (accessToken != null)
+			builder.header(AUTHORIZATION, BEARER + " " + accessToken);
+		String acceptedEncodings;
+		String uploadModes;
+		try (Response response = builder.head()) {
+			if (response.getStatus() == UNAUTHORIZED.getStatusCode())
+				return false;
+			checkStatus(response);
+			acceptedEncodings = response.getHeaderString(CacheEncoding.HEADER);
+			uploadModes = response.getHeaderString(CACHE_UPLOAD_MODES);
+		}
+		cacheDeltaUploadSupports.put(serverUrl + "/" + apiPath, 
+				CacheEncoding.isAccepted(uploadModes, CACHE_UPLOAD_MODE_DELTA));
+
+		target = target
+				.queryParam("key", key)
+				.queryParam("checksum", checksum)
+				.queryParam("path", path);
+		var compressionLevel = CacheEncoding.getCompressionLevel();
+		if (!CacheEncoding.isAccepted(acceptedEncodings, CacheEncoding.GZIP))
+			compressionLevel = 0;
+
+		if (delta != null && delta.getBaseVersion() != null 
+				&& CacheEncoding.isAccepted(uploadModes, CACHE_UPLOAD_MODE_DELTA)) {
+			builder = target.path(CACHE_UPLOAD_MODE_DELTA)
+					.queryParam("baseVersion", delta.getBaseVersion())
 					.request();
+			builder.property(ClientProperties.REQUEST_ENTITY_PROCESSING, "CHUNKED");
 			if (accessToken != null)
 				builder.header(AUTHORIZATION, BEARER + " " + accessToken);
-			StreamingOutput output = os -> TarUtils.tar(cacheDir, excludes, os, false);
+			if (compressionLevel != 0)
+				builder.header(CacheEncoding.HEADER, CacheEncoding.GZIP);
+			int level = compressionLevel;
+			StreamingOutput output = it -> {
+				var os = TransferScheduler.get().meter(it);
+				writeInt(os, delta.getDeletedPaths().size());
+				for (var deletedPath: delta.getDeletedPaths())
+					writeString(os, deletedPath);
+				if (level != 0) {
+					try (var encodedOs = CacheEncoding.encodeTar(os, level)) {
+						TarWriter.write(cacheDir, delta.getChangedPaths(), encodedOs, encodedOs);
+					}
+				} else {
+					TarWriter.write(cacheDir, delta.getChangedPaths(), os);
+				}
+			};
 			try (Response response = builder.post(entity(output, APPLICATION_OCTET_STREAM))) {
 				checkStatus(response);
-				return true;
 			}
-		} finally {
-			client.close();
+			logger.info(String.format("Uploaded %d changed and %d deleted files for %s", 
+					delta.getChangedPaths().size(), delta.getDeletedPaths().size(), 
+					cacheConfig.describeUpload(path)));
+			return true;
+		}
+
+		if (DedupCacheUploader.isEnabled(uploadModes)) {
+			var uploader = new DedupCacheUploader(target, accessToken, compressionLevel);
+			try (var os = new ChunkingOutputStream(uploader)) {
+				TarWriter.write(cacheDir, ExcludeMatcher.of(excludes), os);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			uploader.finish();
+			logger.info(String.format("Uploaded %d of %d chunks (%s of %s) for %s", 
+					uploader.getUploadedChunks(), uploader.getTotalChunks(), 
+					byteCountToDisplaySize(uploader.getUploadedBytes()), 
+					byteCountToDisplaySize(uploader.getTotalBytes()), 
+					cacheConfig.describeUpload(path)));
+			return true;
+		}
+
+		builder = target.request();
+		builder.property(ClientProperties.REQUEST_ENTITY_PROCESSING, "CHUNKED");
+		if (accessToken != null)
+			builder.header(AUTHORIZATION, BEARER + " " + accessToken);
+		StreamingOutput output;
+		if (compressionLevel != 0) {
+			int level = compressionLevel;
+			builder.header(CacheEncoding.HEADER, CacheEncoding.GZIP);
+			output = os -> {
+				try (var encodedOs = CacheEncoding.encodeTar(TransferScheduler.get().meter(os), level)) {
+					TarWriter.write(cacheDir, ExcludeMatcher.of(excludes), encodedOs, encodedOs);
+				}
+			};
+		} else {
+			output = os -> TarWriter.write(cacheDir, ExcludeMatcher.of(excludes), 
+					TransferScheduler.get().meter(os));
+		}
+		try (Response response = builder.post(entity(output, APPLICATION_OCTET_STREAM))) {
+			checkStatus(response);
+			return true;
 		}
 	}
 
@@ -437,6 +735,19 @@ public class KubernetesHelper {
 		return checkNotNull(System.getenv(ENV_SERVER_URL));
 	}
 
+	public static int getIntEnv(String name, int defaultValue) {
+		var value = System.getenv(name);
+		if (StringUtils.isNotBlank(value)) {
+			try {
+				return Integer.parseInt(value.trim());
+			} catch (NumberFormatException e) {
+				throw new ExplicitException("Environment '" + name + "' should be an integer: " + value);
+			}
+		} else {
+			return defaultValue;
+		}
+	}
+
 	public static void logFailure(Logger logger, Throwable e) {
 		logger.error(TaskLogger.wrapWithAnsiError(TaskLogger.toString(null, e)));
 	}
@@ -446,6 +757,12 @@ public class KubernetesHelper {
 	}
 
 	public static void changeOwner(File dirOrFile, String owner, boolean excludeTrustCerts) {
+		if (OwnerChanger.isSupported(owner)) {
+			var changer = OwnerChanger.of(dirOrFile);
+			changer.change(owner, excludeTrustCerts);
+			logger.info("Changed owner of '{}' to {}: {}", dirOrFile.getAbsolutePath(), owner, changer.describe());
+			return;
+		}
 		if (!excludeTrustCerts) {
 			executeChown(owner, dirOrFile, true);
 			return;
@@ -570,16 +887,34 @@ public class KubernetesHelper {
 			@Override
 			protected CacheAvailability download(String key, @Nullable String checksum,
 					String path, File pathDir) {
+				return download(key, checksum, path, pathDir, null);
+			}
+
+			@Override
+			protected CacheAvailability download(String key, @Nullable String checksum,
+					String path, File pathDir, @Nullable CacheManifest restored) {
 				var sslFactory = KubernetesHelper.buildSSLFactory(trustCertsDir);
 				return KubernetesHelper.downloadCache(serverUrl, apiPath, token,
-						key, checksum, path, pathDir, sslFactory);
+						key, checksum, path, pathDir, sslFactory, restored, LocalCacheStore.fromEnv());
 			}
 
 			@Override
 			protected boolean upload(CacheConfigFacade config, String path, File pathDir, List<String> excludes) {
+				return upload(config, path, pathDir, excludes, null);
+			}
+
+			@Override
+			protected boolean isDeltaUploadSupported(CacheConfigFacade config) {
+				var sslFactory = KubernetesHelper.buildSSLFactory(trustCertsDir);
+				return KubernetesHelper.isCacheDeltaUploadSupported(serverUrl, apiPath, token, config, sslFactory);
+			}
+
+			@Override
+			protected boolean upload(CacheConfigFacade config, String path, File pathDir, 
+					List<String> excludes, @Nullable CacheDelta delta) {
 				var sslFactory = KubernetesHelper.buildSSLFactory(trustCertsDir);
 				return KubernetesHelper.uploadCache(serverUrl, apiPath, token, config,
-						path, pathDir, excludes, sslFactory);
+						path, pathDir, excludes, sslFactory, delta);
 			}
 			
 		};
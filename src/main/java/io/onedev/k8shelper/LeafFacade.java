@@ -17,6 +17,11 @@ public abstract class LeafFacade implements StepFacade {
 		handler.skip(this, position);
 	}
 
+	@Override
+	public void prepare(LeafHandler handler, List<Integer> position) {
+		handler.prepare(this, position);
+	}
+
 	@Override
 	public <T> T traverse(LeafVisitor<T> visitor, List<Integer> position) {
 		return visitor.visit(this, position);
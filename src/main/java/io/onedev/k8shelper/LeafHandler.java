@@ -8,4 +8,12 @@ public interface LeafHandler {
 	
 	void skip(LeafFacade executable, List<Integer> position);
 	
+	/**
+	 * Prepare specified step in background while preceding step is executing. Anything 
+	 * prepared should be validated again when the step is executed, as it may depend on 
+	 * outputs of preceding step
+	 */
+	default void prepare(LeafFacade executable, List<Integer> position) {
+	}
+	
 }
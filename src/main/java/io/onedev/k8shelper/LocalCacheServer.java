@@ -0,0 +1,380 @@
+package io.onedev.k8shelper;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.jspecify.annotations.Nullable;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.onedev.commons.utils.FileUtils;
+
+/**
+ * Stand-in of the worker cache api to test and benchmark cache transfers offline. It
+ * supports plain and gzip encoded tar uploads and downloads, as well as chunked uploads
+ * used by {@link DedupCacheUploader}, and range requests to resume downloads. Ranges refer to
+ * the plain tar stream, so ranged responses are never encoded. Usage:
+ * <ul>
+ * <li>serve &lt;store dir&gt; [port]: serve cache api at http://localhost:&lt;port&gt;/~api/worker/job-cache
+ * <li>bench &lt;cache dir&gt;: upload specified dir with different upload modes and report bytes sent
+ * </ul>
+ */
+public class LocalCacheServer {
+
+	public static final String API_PATH = "~api/worker/job-cache";
+
+	private final HttpServer server;
+
+	private final File storeDir;
+
+	private final AtomicLong receivedBytes = new AtomicLong();
+
+	private volatile boolean advertiseChunks = true;
+
+	private volatile long interruptDownloadAt = -1;
+
+	public LocalCacheServer(File storeDir, int port) throws IOException {
+		this.storeDir = storeDir;
+		FileUtils.createDir(getChunksDir());
+		FileUtils.createDir(getEntriesDir());
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/" + API_PATH, this::handle);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+
+	public String getServerUrl() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	public long getReceivedBytes() {
+		return receivedBytes.get();
+	}
+
+	public void setAdvertiseChunks(boolean advertiseChunks) {
+		this.advertiseChunks = advertiseChunks;
+	}
+
+	/**
+	 * Interrupt next full download after specified number of response bytes, to exercise 
+	 * resuming of downloads
+	 */
+	public void setInterruptDownloadAt(long interruptDownloadAt) {
+		this.interruptDownloadAt = interruptDownloadAt;
+	}
+
+	private File getChunksDir() {
+		return new File(storeDir, "chunks");
+	}
+
+	private File getEntriesDir() {
+		return new File(storeDir, "entries");
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			serve(exchange);
+		} catch (DownloadInterruptedException e) {
+			// Exchange is left open so that the connection is aborted instead of ending the 
+			// response normally
+			throw e;
+		}
+		exchange.close();
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		var requestPath = exchange.getRequestURI().getPath();
+		var method = exchange.getRequestMethod();
+		var params = parseQuery(exchange.getRequestURI().getRawQuery());
+		var is = new CountingInputStream(exchange.getRequestBody());
+		try {
+			if (method.equals("HEAD")) {
+				exchange.getResponseHeaders().add(CacheEncoding.HEADER, CacheEncoding.GZIP);
+				if (advertiseChunks)
+					exchange.getResponseHeaders().add(KubernetesHelper.CACHE_UPLOAD_MODES, KubernetesHelper.CACHE_UPLOAD_MODE_CHUNKS);
+				exchange.sendResponseHeaders(200, -1);
+			} else if (method.equals("GET")) {
+				download(exchange, params);
+			} else if (requestPath.endsWith("/chunks/missing")) {
+				var missingHashes = new ArrayList<String>();
+				for (var hash: Splitter.on('\n').omitEmptyStrings().split(new String(is.readAllBytes(), UTF_8))) {
+					if (!getChunkFile(hash).exists())
+						missingHashes.add(hash);
+				}
+				var bytes = Joiner.on('\n').join(missingHashes).getBytes(UTF_8);
+				exchange.sendResponseHeaders(200, bytes.length != 0 ? bytes.length : -1);
+				exchange.getResponseBody().write(bytes);
+			} else if (requestPath.endsWith("/chunks")) {
+				storeChunks(CacheEncoding.decode(is, exchange.getRequestHeaders().getFirst(CacheEncoding.HEADER)));
+				exchange.sendResponseHeaders(204, -1);
+			} else if (requestPath.endsWith("/manifest")) {
+				var manifest = new String(is.readAllBytes(), UTF_8);
+				for (var hash: Splitter.on('\n').omitEmptyStrings().split(manifest)) {
+					if (!getChunkFile(hash).exists())
+						throw new IllegalStateException("Missing chunk: " + hash);
+				}
+				storeEntry(params, "manifest", new ByteArrayInputStream(manifest.getBytes(UTF_8)));
+				exchange.sendResponseHeaders(204, -1);
+			} else {
+				var encoding = exchange.getRequestHeaders().getFirst(CacheEncoding.HEADER);
+				storeEntry(params, "tar", CacheEncoding.decode(is, encoding));
+				exchange.sendResponseHeaders(204, -1);
+			}
+		} catch (DownloadInterruptedException e) {
+			throw e;
+		} catch (Exception e) {
+			var bytes = String.valueOf(e.getMessage()).getBytes(UTF_8);
+			exchange.sendResponseHeaders(500, bytes.length);
+			exchange.getResponseBody().write(bytes);
+		} finally {
+			receivedBytes.addAndGet(is.getByteCount());
+		}
+	}
+
+	private void download(HttpExchange exchange, Map<String, String> params) throws IOException {
+		var entryId = getEntryId(params);
+		var checksumFile = new File(getEntriesDir(), entryId + ".checksum");
+		var tarFile = new File(getEntriesDir(), entryId + ".tar");
+		var manifestFile = new File(getEntriesDir(), entryId + ".manifest");
+		CacheAvailability availability;
+		if (!checksumFile.exists() || !tarFile.exists() && !manifestFile.exists()) {
+			availability = CacheAvailability.NOT_FOUND;
+		} else {
+			var checksum = Files.readString(checksumFile.toPath());
+			if (checksum.equals(String.valueOf(params.get("checksum"))))
+				availability = CacheAvailability.EXACT_MATCH;
+			else
+				availability = CacheAvailability.PARTIAL_MATCH;
+		}
+
+		var gzip = CacheEncoding.isAccepted(exchange.getRequestHeaders().getFirst(CacheEncoding.HEADER), CacheEncoding.GZIP);
+		var range = exchange.getRequestHeaders().getFirst("Range");
+		if (range != null && range.startsWith("bytes=") && range.endsWith("-") 
+				&& availability != CacheAvailability.NOT_FOUND) {
+			// Offset counts availability byte preceding the tar stream
+			var tarOffset = Long.parseLong(range.substring("bytes=".length(), range.length() - 1)) - 1;
+			exchange.sendResponseHeaders(206, 0);
+			try (var is = openTar(tarFile, manifestFile)) {
+				IOUtils.skipFully(is, tarOffset);
+				is.transferTo(exchange.getResponseBody());
+			}
+			return;
+		}
+		if (gzip && availability != CacheAvailability.NOT_FOUND)
+			exchange.getResponseHeaders().add(CacheEncoding.HEADER, CacheEncoding.GZIP);
+		exchange.sendResponseHeaders(200, 0);
+		var os = exchange.getResponseBody();
+		var interruptAt = interruptDownloadAt;
+		if (interruptAt != -1) {
+			interruptDownloadAt = -1;
+			os = new LimitedOutputStream(os, interruptAt);
+		}
+		os.write(availability.ordinal());
+		if (availability != CacheAvailability.NOT_FOUND) {
+			try (
+					var is = openTar(tarFile, manifestFile);
+					// Stored tar is compressed as a whole, as entries are not known here
+					var encodedOs = gzip ? CacheEncoding.encode(os, CacheEncoding.getCompressionLevel()) : os) {
+				is.transferTo(encodedOs);
+			}
+		}
+	}
+
+	private InputStream openTar(File tarFile, File manifestFile) throws IOException {
+		if (tarFile.exists()) 
+			return Files.newInputStream(tarFile.toPath());
+		var streams = new ArrayList<InputStream>();
+		for (var hash: Splitter.on('\n').omitEmptyStrings().split(Files.readString(manifestFile.toPath())))
+			streams.add(Files.newInputStream(getChunkFile(hash).toPath()));
+		return new SequenceInputStream(Collections.enumeration(streams));
+	}
+
+	private void storeChunks(InputStream is) throws IOException {
+		var dis = new DataInputStream(is);
+		while (true) {
+			byte[] hashBytes;
+			try {
+				hashBytes = new byte[dis.readInt()];
+			} catch (EOFException e) {
+				break;
+			}
+			dis.readFully(hashBytes);
+			var hash = new String(hashBytes, UTF_8);
+			var chunk = new byte[dis.readInt()];
+			dis.readFully(chunk);
+			if (!DigestUtils.sha256Hex(chunk).equals(hash))
+				throw new IllegalStateException("Chunk content does not match hash: " + hash);
+			writeAtomically(getChunkFile(hash), chunk);
+		}
+	}
+
+	/**
+	 * Store entry content streamed into a temp file, so that large uploads are not held in 
+	 * memory and existing entry is kept if the upload fails
+	 */
+	private void storeEntry(Map<String, String> params, String type, InputStream content) throws IOException {
+		var entryId = getEntryId(params);
+		var tempFile = File.createTempFile(entryId, ".tmp", getEntriesDir());
+		try {
+			Files.copy(content, tempFile.toPath(), REPLACE_EXISTING);
+			FileUtils.deleteFile(new File(getEntriesDir(), entryId + ".tar"));
+			FileUtils.deleteFile(new File(getEntriesDir(), entryId + ".manifest"));
+			Files.move(tempFile.toPath(), new File(getEntriesDir(), entryId + "." + type).toPath(), 
+					REPLACE_EXISTING, ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile.toPath());
+		}
+		writeAtomically(new File(getEntriesDir(), entryId + ".checksum"),
+				String.valueOf(params.get("checksum")).getBytes(UTF_8));
+	}
+
+	private File getChunkFile(String hash) {
+		if (!hash.matches("[0-9a-f]{64}"))
+			throw new IllegalArgumentException("Invalid chunk hash: " + hash);
+		return new File(getChunksDir(), hash);
+	}
+
+	private String getEntryId(Map<String, String> params) {
+		return DigestUtils.sha256Hex(params.get("key") + "\n" + params.get("path"));
+	}
+
+	private static void writeAtomically(File file, byte[] content) throws IOException {
+		var tempFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+		try {
+			Files.write(tempFile.toPath(), content);
+			Files.move(tempFile.toPath(), file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile.toPath());
+		}
+	}
+
+	private static class LimitedOutputStream extends FilterOutputStream {
+
+		private long remaining;
+
+		private boolean interrupted;
+
+		LimitedOutputStream(OutputStream os, long limit) {
+			super(os);
+			remaining = limit;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] buf, int off, int len) throws IOException {
+			var count = (int) Math.min(len, remaining);
+			out.write(buf, off, count);
+			remaining -= count;
+			if (count < len) {
+				interrupted = true;
+				throw new DownloadInterruptedException();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			// Response should not be ended normally if interrupted
+			if (!interrupted)
+				super.close();
+		}
+
+	}
+
+	private static class DownloadInterruptedException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		DownloadInterruptedException() {
+			super("Download interrupted");
+		}
+
+	}
+
+	private static Map<String, String> parseQuery(@Nullable String query) {
+		Map<String, String> params = new HashMap<>();
+		if (query != null) {
+			for (var param: Splitter.on('&').omitEmptyStrings().split(query)) {
+				var index = param.indexOf('=');
+				if (index != -1)
+					params.put(URLDecoder.decode(param.substring(0, index), UTF_8), URLDecoder.decode(param.substring(index + 1), UTF_8));
+			}
+		}
+		return params;
+	}
+
+	private static void bench(File cacheDir) throws IOException {
+		var storeDir = FileUtils.createTempDir();
+		var server = new LocalCacheServer(storeDir, 0);
+		server.start();
+		try {
+			var config = new CacheConfigFacade("bench", null, List.of(new CacheEntryFacade("bench", null)),
+					UploadStrategy.UPLOAD_IF_CHANGED, null, null);
+			List<String> runs = List.of("stream", "chunks (cold)", "chunks (warm)");
+			for (var run: runs) {
+				server.setAdvertiseChunks(!run.equals("stream"));
+				var receivedBytes = server.getReceivedBytes();
+				var time = System.currentTimeMillis();
+				KubernetesHelper.uploadCache(server.getServerUrl(), API_PATH, "bench", config, "bench",
+						cacheDir, new ArrayList<>(), null);
+				System.out.println(String.format("%s: sent %s in %d ms", run,
+						org.apache.commons.io.FileUtils.byteCountToDisplaySize(server.getReceivedBytes() - receivedBytes),
+						System.currentTimeMillis() - time));
+			}
+		} finally {
+			server.stop();
+			FileUtils.deleteDir(storeDir);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length >= 2 && args[0].equals("serve")) {
+			var server = new LocalCacheServer(new File(args[1]), args.length >= 3 ? Integer.parseInt(args[2]) : 6610);
+			server.start();
+			System.out.println("Serving cache api at " + server.getServerUrl() + "/" + API_PATH);
+		} else if (args.length >= 2 && args[0].equals("bench")) {
+			bench(new File(args[1]));
+		} else {
+			System.err.println("Usage: LocalCacheServer serve <store dir> [port] | bench <cache dir>");
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,264 @@
+package io.onedev.k8shelper;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.commons.utils.StringUtils;
+
+/**
+ * Node local cache tier checked before the cache api. Entries are tar archives indexed by
+ * project, key, checksum and path, and are only used after server confirms an exact match of
+ * the same cache version, so that content replaced on server or of other projects is never
+ * served. The directory can be shared by pods on the same node via hostPath or
+ * persistent volume: entries are written to temp files and moved into place atomically, and
+ * least recently used entries are evicted under a file lock once total size exceeds the limit
+ */
+public class LocalCacheStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(LocalCacheStore.class);
+
+	public static final String ENV_DIR = "ONEDEV_LOCAL_CACHE_DIR";
+
+	public static final String ENV_MAX_SIZE = "ONEDEV_LOCAL_CACHE_MAX_SIZE";
+
+	private static final int DEFAULT_MAX_SIZE = 10240;
+
+	private static final String ENTRY_SUFFIX = ".entry";
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static final String LOCK_FILE = ".lock";
+
+	private static final long STALE_TEMP_FILE_AGE = 24 * 3600 * 1000L;
+
+	private static LocalCacheStore instance;
+
+	private final File dir;
+
+	private final long maxSize;
+
+	private final AtomicInteger hits = new AtomicInteger();
+
+	private final AtomicInteger misses = new AtomicInteger();
+
+	public LocalCacheStore(File dir, long maxSize) {
+		this.dir = dir;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return local cache store configured via environment, or <tt>null</tt> if not configured.
+	 * Max size is specified in megabytes
+	 */
+	@Nullable
+	public static synchronized LocalCacheStore fromEnv() {
+		var dirPath = System.getenv(ENV_DIR);
+		if (StringUtils.isBlank(dirPath))
+			return null;
+		var dir = new File(dirPath.trim());
+		if (instance == null || !instance.dir.equals(dir)) {
+			var maxSize = KubernetesHelper.getIntEnv(ENV_MAX_SIZE, DEFAULT_MAX_SIZE) * 1024L * 1024L;
+			instance = new LocalCacheStore(dir, maxSize);
+		}
+		return instance;
+	}
+
+	private File getEntryFile(String scope, String project, String key, String checksum, String path) {
+		var entryId = DigestUtils.sha256Hex(scope + "\n" + project + "\n" + key + "\n" + checksum + "\n" + path);
+		return new File(dir, entryId + ENTRY_SUFFIX);
+	}
+
+	/**
+	 * Open tar stream of specified entry
+	 *
+	 * @param scope scope of the entry, for instance url of the cache api
+	 * @param project project of the cache reported by server
+	 * @param version version of the cache reported by server
+	 * @return tar stream of the entry, or <tt>null</tt> if entry does not exist or is of a
+	 * different version
+	 */
+	@Nullable
+	public InputStream open(String scope, String project, String key, String checksum, String path, String version) {
+		var entryFile = getEntryFile(scope, project, key, checksum, path);
+		InputStream is = null;
+		try {
+			is = new BufferedInputStream(Files.newInputStream(entryFile.toPath()));
+			var entryVersion = new DataInputStream(is).readUTF();
+			if (entryVersion.equals(version)) {
+				entryFile.setLastModified(System.currentTimeMillis());
+				logger.info("Local cache hit (key: {}, checksum: {}, path: {}, hits: {}, misses: {})",
+						key, checksum, path, hits.incrementAndGet(), misses.get());
+				return is;
+			}
+		} catch (NoSuchFileException e) {
+			// fall through as a miss
+		} catch (IOException e) {
+			logger.warn("Error reading local cache entry: " + entryFile.getAbsolutePath(), e);
+		}
+		if (is != null) {
+			try {
+				is.close();
+			} catch (IOException e) {
+			}
+		}
+		logger.info("Local cache miss (key: {}, checksum: {}, path: {}, hits: {}, misses: {})",
+				key, checksum, path, hits.get(), misses.incrementAndGet());
+		return null;
+	}
+
+	/**
+	 * Create output stream to write tar stream of specified entry. Entry is only visible after
+	 * {@link EntryOutputStream#commit()}. Errors writing the stream are logged and discard
+	 * the entry instead of failing the caller
+	 */
+	public EntryOutputStream create(String scope, String project, String key, String checksum, String path, String version) {
+		return new EntryOutputStream(getEntryFile(scope, project, key, checksum, path), version);
+	}
+
+	private void evict() throws IOException {
+		try (
+				var channel = FileChannel.open(new File(dir, LOCK_FILE).toPath(),
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				var lock = channel.lock()) {
+			var entryFiles = new ArrayList<File>();
+			long totalSize = 0;
+			var now = System.currentTimeMillis();
+			var files = dir.listFiles();
+			if (files == null)
+				return;
+			for (var file: files) {
+				if (file.getName().endsWith(ENTRY_SUFFIX)) {
+					entryFiles.add(file);
+					totalSize += file.length();
+				} else if (file.getName().endsWith(TEMP_SUFFIX) && now - file.lastModified() > STALE_TEMP_FILE_AGE) {
+					FileUtils.deleteFile(file);
+				}
+			}
+			if (totalSize > maxSize) {
+				entryFiles.sort(Comparator.comparingLong(File::lastModified));
+				for (var entryFile: entryFiles) {
+					totalSize -= entryFile.length();
+					FileUtils.deleteFile(entryFile);
+					if (totalSize <= maxSize)
+						break;
+				}
+			}
+		}
+	}
+
+	public class EntryOutputStream extends OutputStream {
+
+		private final File entryFile;
+
+		private final File tempFile;
+
+		private OutputStream os;
+
+		private boolean committed;
+
+		EntryOutputStream(File entryFile, String version) {
+			this.entryFile = entryFile;
+			tempFile = new File(dir, UUID.randomUUID() + TEMP_SUFFIX);
+			try {
+				FileUtils.createDir(dir);
+				var dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile.toPath())));
+				dos.writeUTF(version);
+				os = dos;
+			} catch (IOException e) {
+				discard(e);
+			}
+		}
+
+		private void discard(@Nullable Exception e) {
+			if (e != null)
+				logger.warn("Error writing local cache entry, discarding", e);
+			if (os != null) {
+				try {
+					os.close();
+				} catch (IOException e2) {
+				}
+				os = null;
+			}
+			FileUtils.deleteFile(tempFile);
+		}
+
+		@Override
+		public void write(int b) {
+			if (os != null) {
+				try {
+					os.write(b);
+				} catch (IOException e) {
+					discard(e);
+				}
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			if (os != null) {
+				try {
+					os.write(b, off, len);
+				} catch (IOException e) {
+					discard(e);
+				}
+			}
+		}
+
+		/**
+		 * Make written entry visible, and evict least recently used entries if necessary
+		 */
+		public void commit() {
+			if (os != null) {
+				try {
+					os.close();
+					os = null;
+					Files.move(tempFile.toPath(), entryFile.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+					committed = true;
+				} catch (IOException e) {
+					discard(e);
+				}
+			}
+			if (committed) {
+				try {
+					evict();
+				} catch (IOException e) {
+					logger.warn("Error evicting local cache entries", e);
+				}
+			}
+		}
+
+		/**
+		 * Discard the entry if not committed yet
+		 */
+		@Override
+		public void close() {
+			if (!committed)
+				discard(null);
+		}
+
+	}
+
+}
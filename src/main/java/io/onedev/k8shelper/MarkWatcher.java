@@ -0,0 +1,110 @@
+package io.onedev.k8shelper;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.FileSystems;
+import java.nio.file.WatchService;
+import java.util.function.Supplier;
+
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Waits for mark files created in a mark dir by other containers. Creation of files is
+ * watched via inotify so that waiters wake up as soon as a mark appears. Marks are still
+ * polled at the same interval as without watching, in case events are lost on overflow or
+ * not delivered for files created by other containers. Multiple threads may wait at the
+ * same time
+ */
+public class MarkWatcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(MarkWatcher.class);
+
+	private static final long POLL_INTERVAL = 100;
+
+	public MarkWatcher(File markDir) {
+		try {
+			var watchService = FileSystems.getDefault().newWatchService();
+			markDir.toPath().register(watchService, ENTRY_CREATE);
+			var thread = new Thread(() -> dispatch(watchService), "mark-watcher");
+			thread.setDaemon(true);
+			thread.start();
+		} catch (IOException | UnsupportedOperationException e) {
+			logger.warn("Unable to watch mark dir, falling back to polling", e);
+		}
+	}
+
+	private void dispatch(WatchService watchService) {
+		try {
+			while (true) {
+				var key = watchService.take();
+				key.pollEvents();
+				var valid = key.reset();
+				wakeUp();
+				if (!valid)
+					break;
+			}
+		} catch (InterruptedException e) {
+			wakeUp();
+		}
+	}
+
+	/**
+	 * Wait until any of specified marks exists
+	 *
+	 * @return the first existing mark in specified order
+	 */
+	public File await(File... marks) {
+		return await(() -> {
+			for (var mark: marks) {
+				if (mark.exists())
+					return mark;
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Wait until specified condition returns non-null value. The condition is checked when
+	 * a mark is created or {@link #wakeUp()} is called, and periodically
+	 */
+	public <T> T await(Supplier<@Nullable T> condition) {
+		try {
+			synchronized (this) {
+				while (true) {
+					var result = condition.get();
+					if (result != null)
+						return result;
+					wait(POLL_INTERVAL);
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public synchronized void wakeUp() {
+		notifyAll();
+	}
+
+	/**
+	 * Wake up step script blocking on specified signal fifo, if it exists. The fifo is
+	 * opened for read and write so that this never blocks even if nobody is reading. Mark
+	 * of the signal should be created before calling this, as the script checks marks
+	 * after opening the fifo and before blocking on it
+	 */
+	public static void signal(File fifo) {
+		if (!fifo.exists())
+			return;
+		try (var file = new RandomAccessFile(fifo, "rw")) {
+			file.write('\n');
+		} catch (IOException e) {
+			logger.warn("Error signaling fifo '" + fifo.getAbsolutePath() + "'", e);
+		}
+	}
+
+}
@@ -0,0 +1,269 @@
+package io.onedev.k8shelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Changes owner of a dir recursively in current process, like <tt>chown -R</tt> without
+ * following symbolic links. Directories are walked in parallel by a fork join pool, and
+ * files already owned by target owner are left untouched.
+ * <p>
+ * Modification time and children of each listed directory are remembered, so that next
+ * change of the same owner only lists directories modified since then. Remembered children
+ * of other directories are still checked, as their owner may be changed by steps running
+ * as other users without modifying the directory, but this is a stat of each child instead
+ * of listing the directory. A directory is listed again if its modification time is not at
+ * least one second older than the time it is listed, as modifications in the same clock
+ * tick may not change modification time.
+ * <p>
+ * Children added to a directory whose modification time is then set back to an older value,
+ * for instance by archive extraction, are not detected until the owner changes
+ */
+public class OwnerChanger {
+
+	public static final String ENV_CHANGE_OWNER_THREADS = "ONEDEV_CHANGE_OWNER_THREADS";
+
+	private static final int DEFAULT_CHANGE_OWNER_THREADS = 8;
+
+	private static final long MODIFICATION_TIME_SLACK = 1000;
+
+	private static final String ATTRIBUTES = "unix:uid,gid,lastModifiedTime,isDirectory";
+
+	private static final Map<Path, OwnerChanger> changers = new ConcurrentHashMap<>();
+
+	private final Path dir;
+
+	private final Map<Path, ListedDir> listedDirs = new ConcurrentHashMap<>();
+
+	private String lastOwner;
+
+	private boolean lastExcludeTrustCerts;
+
+	private final AtomicInteger visitedFiles = new AtomicInteger();
+
+	private final AtomicInteger changedFiles = new AtomicInteger();
+
+	private long elapsedMillis;
+
+	private OwnerChanger(Path dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Get changer of specified dir. Changers are kept per dir in current process to remember
+	 * directories listed by previous changes
+	 */
+	public static OwnerChanger of(File dir) {
+		return changers.computeIfAbsent(dir.getAbsoluteFile().toPath(), OwnerChanger::new);
+	}
+
+	/**
+	 * @return whether specified owner can be changed in process. Only numeric owners on file
+	 * systems supporting unix attributes are supported
+	 */
+	public static boolean isSupported(String owner) {
+		return parseOwner(owner) != null
+				&& FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+	}
+
+	@Nullable
+	private static int[] parseOwner(String owner) {
+		var fields = owner.split(":", -1);
+		try {
+			if (fields.length == 1)
+				return new int[] {Integer.parseInt(fields[0]), -1};
+			else if (fields.length == 2)
+				return new int[] {Integer.parseInt(fields[0]), Integer.parseInt(fields[1])};
+			else
+				return null;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param owner owner in form of <tt>uid:gid</tt> or <tt>uid</tt>
+	 * @param excludeTrustCerts whether to leave the <tt>trust-certs</tt> child untouched
+	 */
+	public synchronized void change(String owner, boolean excludeTrustCerts) {
+		var ids = parseOwner(owner);
+		if (ids == null)
+			throw new IllegalArgumentException("Invalid owner: " + owner);
+		if (!owner.equals(lastOwner) || excludeTrustCerts != lastExcludeTrustCerts) {
+			listedDirs.clear();
+			lastOwner = owner;
+			lastExcludeTrustCerts = excludeTrustCerts;
+		}
+		visitedFiles.set(0);
+		changedFiles.set(0);
+		var startTime = System.currentTimeMillis();
+		try {
+			Map<String, Object> attrs;
+			try {
+				attrs = Files.readAttributes(dir, ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+			} catch (NoSuchFileException e) {
+				return;
+			}
+			visit(dir, attrs, ids);
+			if ((boolean) attrs.get("isDirectory")) {
+				var threads = KubernetesHelper.getIntEnv(ENV_CHANGE_OWNER_THREADS, DEFAULT_CHANGE_OWNER_THREADS);
+				var pool = new ForkJoinPool(Math.max(threads, 1));
+				try {
+					pool.invoke(new WalkTask(dir, attrs, ids, excludeTrustCerts));
+				} finally {
+					pool.shutdownNow();
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} catch (UncheckedIOException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			elapsedMillis = System.currentTimeMillis() - startTime;
+		}
+	}
+
+	private void visit(Path path, Map<String, Object> attrs, int[] ids) throws IOException {
+		visitedFiles.incrementAndGet();
+		var changed = false;
+		if ((int) attrs.get("uid") != ids[0]) {
+			Files.setAttribute(path, "unix:uid", ids[0], LinkOption.NOFOLLOW_LINKS);
+			changed = true;
+		}
+		if (ids[1] != -1 && (int) attrs.get("gid") != ids[1]) {
+			Files.setAttribute(path, "unix:gid", ids[1], LinkOption.NOFOLLOW_LINKS);
+			changed = true;
+		}
+		if (changed)
+			changedFiles.incrementAndGet();
+	}
+
+	/**
+	 * @return number of files and directories visited by last change
+	 */
+	public int getVisitedFiles() {
+		return visitedFiles.get();
+	}
+
+	/**
+	 * @return number of files and directories whose owner is changed by last change
+	 */
+	public int getChangedFiles() {
+		return changedFiles.get();
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	public String describe() {
+		return String.format("changed %d of %d visited files in %d ms",
+				getChangedFiles(), getVisitedFiles(), getElapsedMillis());
+	}
+
+	private class WalkTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path dir;
+
+		private final Map<String, Object> attrs;
+
+		private final int[] ids;
+
+		private final boolean excludeTrustCerts;
+
+		WalkTask(Path dir, Map<String, Object> attrs, int[] ids, boolean excludeTrustCerts) {
+			this.dir = dir;
+			this.attrs = attrs;
+			this.ids = ids;
+			this.excludeTrustCerts = excludeTrustCerts;
+		}
+
+		@Override
+		protected void compute() {
+			List<WalkTask> subtasks = new ArrayList<>();
+			try {
+				var modificationTime = (FileTime) attrs.get("lastModifiedTime");
+				var listedDir = listedDirs.get(dir);
+				if (listedDir != null && listedDir.modificationTime.equals(modificationTime)
+						&& modificationTime.toMillis() < listedDir.listTime - MODIFICATION_TIME_SLACK) {
+					// Children are not added or removed since last listed, check them without listing
+					for (var name: listedDir.children) {
+						var child = dir.resolve(name);
+						Map<String, Object> childAttrs;
+						try {
+							childAttrs = Files.readAttributes(child, ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+						} catch (NoSuchFileException e) {
+							continue;
+						}
+						visit(child, childAttrs, ids);
+						if ((boolean) childAttrs.get("isDirectory")) 
+							subtasks.add(new WalkTask(child, childAttrs, ids, false));
+					}
+				} else {
+					var listTime = System.currentTimeMillis();
+					List<String> childNames = new ArrayList<>();
+					try (var children = Files.newDirectoryStream(dir)) {
+						for (var child: children) {
+							var name = child.getFileName().toString();
+							if (excludeTrustCerts && name.equals("trust-certs"))
+								continue;
+							Map<String, Object> childAttrs;
+							try {
+								childAttrs = Files.readAttributes(child, ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+							} catch (NoSuchFileException e) {
+								continue;
+							}
+							visit(child, childAttrs, ids);
+							childNames.add(name);
+							if ((boolean) childAttrs.get("isDirectory")) 
+								subtasks.add(new WalkTask(child, childAttrs, ids, false));
+						}
+					}
+					listedDirs.put(dir, new ListedDir(modificationTime, listTime, childNames));
+				}
+			} catch (NoSuchFileException e) {
+				listedDirs.remove(dir);
+				return;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			invokeAll(subtasks);
+		}
+
+	}
+
+	private static class ListedDir {
+
+		final FileTime modificationTime;
+
+		final long listTime;
+
+		final List<String> children;
+
+		ListedDir(FileTime modificationTime, long listTime, List<String> children) {
+			this.modificationTime = modificationTime;
+			this.listTime = listTime;
+			this.children = children;
+		}
+
+	}
+
+}
@@ -0,0 +1,73 @@
+package io.onedev.k8shelper;
+
+import static io.onedev.k8shelper.ExecuteCondition.ALWAYS;
+import static io.onedev.k8shelper.ExecuteCondition.NEVER;
+import static io.onedev.k8shelper.ExecuteCondition.SUCCESSFUL;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Group of actions running concurrently. Conditions of actions are evaluated when the group
+ * starts as in a nested {@link CompositeFacade}, and the group is successful if all its
+ * non-optional actions are successful. Leaf handler should be thread-safe to execute actions
+ * of this group
+ */
+public class ParallelFacade extends CompositeFacade {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int maxParallelism;
+
+	/**
+	 * @param maxParallelism max number of actions running at the same time, 0 for unlimited
+	 */
+	public ParallelFacade(List<Action> actions, int maxParallelism) {
+		super(actions);
+		this.maxParallelism = maxParallelism;
+	}
+
+	public int getMaxParallelism() {
+		return maxParallelism;
+	}
+
+	@Override
+	public boolean execute(LeafHandler handler, List<Integer> position) {
+		var actions = getActions();
+		var successful = new AtomicBoolean(true);
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int i = 0; i<actions.size(); i++) {
+			Action action = actions.get(i);
+			List<Integer> newPosition = new ArrayList<>(position);
+			newPosition.add(i);
+			if (action.getCondition() == ALWAYS || action.getCondition() == SUCCESSFUL) {
+				tasks.add(() -> {
+					var actionSuccessful = action.getExecutable().execute(handler, newPosition);
+					if (!action.isOptional() && !actionSuccessful)
+						successful.set(false);
+					return null;
+				});
+			} else {
+				action.getExecutable().skip(handler, newPosition);
+			}
+		}
+		var parallelism = maxParallelism > 0? maxParallelism: tasks.size();
+		ConcurrentTasks.run(tasks, parallelism, (index, result) -> {});
+		return successful.get();
+	}
+
+	@Override
+	public void prepare(LeafHandler handler, List<Integer> position) {
+		var actions = getActions();
+		for (int i = 0; i<actions.size(); i++) {
+			if (actions.get(i).getCondition() != NEVER) {
+				List<Integer> newPosition = new ArrayList<>(position);
+				newPosition.add(i);
+				actions.get(i).getExecutable().prepare(handler, newPosition);
+			}
+		}
+	}
+
+}
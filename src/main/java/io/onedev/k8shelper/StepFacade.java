@@ -11,4 +11,10 @@ public interface StepFacade extends Serializable {
 	
 	<T> T traverse(LeafVisitor<T> visitor, List<Integer> position);
 	
+	/**
+	 * Prepare steps executed first when this facade is executed. Does nothing by default
+	 */
+	default void prepare(LeafHandler handler, List<Integer> position) {
+	}
+	
 }
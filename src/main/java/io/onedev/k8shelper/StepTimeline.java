@@ -0,0 +1,120 @@
+package io.onedev.k8shelper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Records start and finish times of executed steps, to find the chain of steps bounding
+ * wall time of the job
+ */
+public class StepTimeline {
+
+	private final Map<List<Integer>, long[]> timings = new ConcurrentHashMap<>();
+
+	public void record(List<Integer> position, long startTime, long finishTime) {
+		timings.put(new ArrayList<>(position), new long[] {startTime, finishTime});
+	}
+
+	/**
+	 * @return milliseconds specified step runs, or -1 if step is not executed
+	 */
+	public long getDuration(List<Integer> position) {
+		var timing = timings.get(position);
+		return timing != null? timing[1] - timing[0]: -1;
+	}
+
+	/**
+	 * Get critical path of executed steps. The path ends with the step finishing last, and
+	 * each step in the path is preceded by the step it depends on finishing last. Skipped
+	 * steps are passed through to steps they depend on
+	 *
+	 * @return positions of steps in the critical path, in execution order
+	 */
+	public List<List<Integer>> getCriticalPath(CompositeFacade entryFacade) {
+		Map<List<Integer>, Set<List<Integer>>> predecessors = new HashMap<>();
+		link(entryFacade, new ArrayList<>(), new LinkedHashSet<>(), predecessors);
+
+		List<List<Integer>> criticalPath = new ArrayList<>();
+		var current = getLastFinished(timings.keySet());
+		while (current != null) {
+			criticalPath.add(current);
+			Set<List<Integer>> executedPredecessors = new HashSet<>();
+			Set<List<Integer>> visited = new HashSet<>();
+			var pending = new ArrayDeque<>(predecessors.getOrDefault(current, Set.of()));
+			while (!pending.isEmpty()) {
+				var predecessor = pending.poll();
+				if (!visited.add(predecessor))
+					continue;
+				if (timings.containsKey(predecessor))
+					executedPredecessors.add(predecessor);
+				else
+					pending.addAll(predecessors.getOrDefault(predecessor, Set.of()));
+			}
+			current = getLastFinished(executedPredecessors);
+		}
+		Collections.reverse(criticalPath);
+		return criticalPath;
+	}
+
+	@Nullable
+	private List<Integer> getLastFinished(Set<List<Integer>> positions) {
+		List<Integer> lastFinished = null;
+		for (var position: positions) {
+			if (lastFinished == null || timings.get(position)[1] > timings.get(lastFinished)[1])
+				lastFinished = position;
+		}
+		return lastFinished;
+	}
+
+	/**
+	 * Record leaf steps each leaf step of specified facade depends on
+	 *
+	 * @return leaf steps of specified facade
+	 */
+	private Set<List<Integer>> link(StepFacade facade, List<Integer> position, Set<List<Integer>> predecessors,
+									Map<List<Integer>, Set<List<Integer>>> leafPredecessors) {
+		if (facade instanceof LeafFacade) {
+			leafPredecessors.put(position, predecessors);
+			return Set.of(position);
+		}
+		var compositeFacade = (CompositeFacade) facade;
+		var actions = compositeFacade.getActions();
+		List<List<Integer>> dependencies;
+		if (facade instanceof ParallelFacade) {
+			dependencies = new ArrayList<>();
+			for (int i = 0; i < actions.size(); i++)
+				dependencies.add(List.of());
+		} else {
+			dependencies = compositeFacade.getDependencies();
+		}
+		List<Set<List<Integer>>> actionLeaves = new ArrayList<>();
+		Set<List<Integer>> leaves = new LinkedHashSet<>();
+		for (int i = 0; i < actions.size(); i++) {
+			Set<List<Integer>> actionPredecessors;
+			if (dependencies.get(i).isEmpty()) {
+				actionPredecessors = predecessors;
+			} else {
+				actionPredecessors = new LinkedHashSet<>();
+				for (var dependency: dependencies.get(i))
+					actionPredecessors.addAll(actionLeaves.get(dependency));
+			}
+			List<Integer> newPosition = new ArrayList<>(position);
+			newPosition.add(i);
+			var currentLeaves = link(actions.get(i).getExecutable(), newPosition, actionPredecessors, leafPredecessors);
+			actionLeaves.add(currentLeaves);
+			leaves.addAll(currentLeaves);
+		}
+		return leaves;
+	}
+
+}
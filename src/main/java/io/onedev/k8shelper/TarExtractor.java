@@ -0,0 +1,351 @@
+package io.onedev.k8shelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.lang3.tuple.Pair;
+import org.jspecify.annotations.Nullable;
+
+import io.onedev.commons.utils.ExplicitException;
+import io.onedev.commons.utils.FileUtils;
+
+/**
+ * Extracts a tar stream into a directory while tracking the boundary of the last fully
+ * extracted entry, so that an interrupted extraction can continue from that boundary
+ * without rewriting extracted files.
+ * <p>
+ * Extraction is pipelined: calling thread parses the stream and buffers content of small
+ * files within a bounded memory budget, while a worker pool writes them. Files are not synced
+ * individually, and modification time of directories is applied after all entries are written.
+ * If a manifest is specified, digests of regular files are computed while they are written.
+ * <p>
+ * Symbolic links may point anywhere, but entries are never written through a symbolic link
+ * resolving outside of the target directory
+ */
+public class TarExtractor {
+
+	public static final String ENV_UNTAR_THREADS = "ONEDEV_UNTAR_THREADS";
+
+	private static final int DEFAULT_UNTAR_THREADS = 8;
+
+	private static final int BLOCK_SIZE = 512;
+
+	// Larger files are written by the parsing thread directly
+	private static final int MAX_BUFFERED_FILE_SIZE = 1024 * 1024;
+
+	private static final int BUFFER_BUDGET = 64 * 1024 * 1024;
+
+	private final File destDir;
+
+	private final Path destPath;
+
+	private final CacheManifest manifest;
+
+	// Directories checked to be inside of target directory after resolving symbolic links
+	private final Set<Path> checkedDirs = ConcurrentHashMap.newKeySet();
+
+	private Path realDestPath;
+
+	private final Map<Integer, Long> completedBoundaries = new HashMap<>();
+
+	private final List<Pair<Path, Long>> directories = new ArrayList<>();
+
+	private int extractedEntries;
+
+	private long resumeOffset;
+
+	private int pendingWrites;
+
+	private Throwable writeFailure;
+
+	public TarExtractor(File destDir) {
+		this(destDir, null);
+	}
+
+	/**
+	 * @param manifest manifest to record digests of extracted files into, so that they do not
+	 * need to be read back to be digested
+	 */
+	public TarExtractor(File destDir, @Nullable CacheManifest manifest) {
+		this.destDir = destDir;
+		this.manifest = manifest;
+		destPath = destDir.toPath().toAbsolutePath().normalize();
+	}
+
+	/**
+	 * @return number of entries extracted so far
+	 */
+	public synchronized int getExtractedEntries() {
+		return extractedEntries;
+	}
+
+	/**
+	 * @return offset in the tar stream where the first entry not yet extracted begins
+	 */
+	public synchronized long getResumeOffset() {
+		return resumeOffset;
+	}
+
+	/**
+	 * Extract specified tar stream
+	 *
+	 * @param is tar stream to extract
+	 * @param offset offset of specified stream in the whole tar stream. Must be either 0 to
+	 * extract from beginning, or value of {@link #getResumeOffset()} to continue extraction.
+	 * When extracting from beginning, entries already extracted will be skipped
+	 */
+	public void extract(InputStream is, long offset) throws IOException {
+		if (offset != 0 && offset != getResumeOffset())
+			throw new IllegalArgumentException("Unexpected tar stream offset: " + offset);
+		FileUtils.createDir(destDir);
+		realDestPath = destPath.toRealPath();
+
+		var threads = KubernetesHelper.getIntEnv(ENV_UNTAR_THREADS, DEFAULT_UNTAR_THREADS);
+		ExecutorService executor = null;
+		if (threads > 1) {
+			var threadNumber = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(threads, runnable -> {
+				var thread = new Thread(runnable, "untar-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		var budget = new Semaphore(BUFFER_BUDGET);
+		var stats = TransferStats.current();
+		try {
+			var countingIs = new CountingInputStream(is);
+			var tar = new TarArchiveInputStream(countingIs);
+			var entryIndex = getExtractedEntries();
+			var entriesToSkip = offset == 0 ? entryIndex : 0;
+			Set<Path> submittedPaths = new HashSet<>();
+			TarArchiveEntry entry;
+			while ((entry = tar.getNextTarEntry()) != null) {
+				checkWriteFailure();
+				var headerEnd = offset + countingIs.getByteCount();
+				if (entriesToSkip != 0) {
+					entriesToSkip--;
+					continue;
+				}
+				var index = entryIndex++;
+				var boundary = headerEnd + (entry.getSize() + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+				var path = resolve(entry.getName());
+				if (stats != null && isRegularFile(entry))
+					stats.addFile(entry.getSize());
+
+				// Entries of the same path should be applied in order
+				if (!submittedPaths.add(path)) {
+					awaitPendingWrites();
+					submittedPaths.clear();
+					submittedPaths.add(path);
+				}
+
+				if (executor != null && isRegularFile(entry) && entry.getSize() <= MAX_BUFFERED_FILE_SIZE) {
+					var size = (int) entry.getSize();
+					budget.acquire(size);
+					var content = new byte[size];
+					try {
+						IOUtils.readFully(tar, content);
+					} catch (IOException e) {
+						budget.release(size);
+						throw e;
+					}
+					var fileEntry = entry;
+					synchronized (this) {
+						pendingWrites++;
+					}
+					executor.execute(() -> {
+						try {
+							prepare(path);
+							Files.write(path, content);
+							applyMetadata(path, fileEntry);
+							if (manifest != null) 
+								recordExtracted(path, fileEntry, CacheManifest.digest(content));
+							complete(index, boundary);
+						} catch (Throwable e) {
+							fail(e);
+						} finally {
+							budget.release(size);
+							synchronized (this) {
+								pendingWrites--;
+								notifyAll();
+							}
+						}
+					});
+				} else {
+					if (entry.isLink() || entry.isSymbolicLink())
+						awaitPendingWrites();
+					extract(tar, entry, path);
+					complete(index, boundary);
+				}
+			}
+			awaitPendingWrites();
+			checkWriteFailure();
+
+			directories.sort(Comparator.comparing((Pair<Path, Long> it) -> it.getLeft().getNameCount()).reversed());
+			for (var directory: directories) {
+				if (Files.isDirectory(directory.getLeft(), LinkOption.NOFOLLOW_LINKS))
+					Files.setLastModifiedTime(directory.getLeft(), FileTime.fromMillis(directory.getRight()));
+			}
+			directories.clear();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} finally {
+			// Let buffered files complete so that they do not need to be extracted again
+			awaitPendingWrites();
+			if (executor != null)
+				executor.shutdown();
+		}
+	}
+
+	private synchronized void awaitPendingWrites() {
+		while (pendingWrites != 0) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private synchronized void fail(Throwable e) {
+		if (writeFailure == null)
+			writeFailure = e;
+	}
+
+	private synchronized void checkWriteFailure() {
+		if (writeFailure != null)
+			throw new RuntimeException("Error writing extracted file", writeFailure);
+	}
+
+	/**
+	 * Entries may complete out of order. Extracted entries and resume offset only advance
+	 * over entries completed continuously
+	 */
+	private synchronized void complete(int index, long boundary) {
+		completedBoundaries.put(index, boundary);
+		Long nextBoundary;
+		while ((nextBoundary = completedBoundaries.remove(extractedEntries)) != null) {
+			resumeOffset = nextBoundary;
+			extractedEntries++;
+		}
+	}
+
+	private static boolean isRegularFile(TarArchiveEntry entry) {
+		// TarArchiveEntry.isFile() also returns true for links
+		return entry.isFile() && !entry.isSymbolicLink() && !entry.isLink();
+	}
+
+	private Path resolve(String name) {
+		var path = destPath.resolve(name).normalize();
+		if (!path.startsWith(destPath))
+			throw new ExplicitException("Tar entry is outside of target directory: " + name);
+		return path;
+	}
+
+	/**
+	 * Create parent directories of specified path. Existing parents reached via symbolic links 
+	 * should resolve inside of target directory
+	 */
+	private void prepareParent(Path path) throws IOException {
+		var current = destPath;
+		for (var name: destPath.relativize(path.getParent())) {
+			current = current.resolve(name);
+			if (checkedDirs.contains(current))
+				continue;
+			if (Files.isSymbolicLink(current)) {
+				if (!current.toRealPath().startsWith(realDestPath))
+					throw new ExplicitException("Tar entry is outside of target directory: " + destPath.relativize(path));
+			} else {
+				try {
+					Files.createDirectory(current);
+				} catch (FileAlreadyExistsException e) {
+				}
+			}
+			checkedDirs.add(current);
+		}
+	}
+
+	private void prepare(Path path) throws IOException {
+		prepareParent(path);
+		if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))
+			FileUtils.deleteDir(path.toFile());
+		else
+			Files.deleteIfExists(path);
+	}
+
+	private void applyMetadata(Path path, TarArchiveEntry entry) throws IOException {
+		if ((entry.getMode() & 0100) != 0)
+			path.toFile().setExecutable(true, false);
+		Files.setLastModifiedTime(path, FileTime.fromMillis(entry.getModTime().getTime()));
+	}
+
+	private void extract(TarArchiveInputStream tar, TarArchiveEntry entry, Path path) throws IOException {
+		if (entry.isDirectory()) {
+			if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+				prepareParent(path);
+				Files.deleteIfExists(path);
+				Files.createDirectory(path);
+			}
+			directories.add(Pair.of(path, entry.getModTime().getTime()));
+			return;
+		}
+
+		if (entry.isSymbolicLink()) {
+			// Directories replaced by this link should be checked again. Pending writes are 
+			// awaited already
+			checkedDirs.removeIf(it -> it.startsWith(path));
+		}
+		prepare(path);
+		if (entry.isSymbolicLink()) {
+			Files.createSymbolicLink(path, Paths.get(entry.getLinkName()));
+		} else if (entry.isLink()) {
+			var target = resolve(entry.getLinkName());
+			if (!target.getParent().toRealPath().startsWith(realDestPath))
+				throw new ExplicitException("Tar entry is outside of target directory: " + entry.getLinkName());
+			Files.createLink(path, target);
+		} else if (isRegularFile(entry)) {
+			String digest = null;
+			try (var os = Files.newOutputStream(path)) {
+				if (manifest != null) {
+					var digestingOs = CacheManifest.digesting(os);
+					tar.transferTo(digestingOs);
+					digest = digestingOs.hash().toString();
+				} else {
+					tar.transferTo(os);
+				}
+			}
+			applyMetadata(path, entry);
+			if (digest != null)
+				recordExtracted(path, entry, digest);
+		}
+	}
+
+	private void recordExtracted(Path path, TarArchiveEntry entry, String digest) {
+		manifest.recordExtracted(CacheManifest.getRelativePath(destPath, path), entry.getSize(), 
+				entry.getModTime().getTime(), digest);
+	}
+
+}
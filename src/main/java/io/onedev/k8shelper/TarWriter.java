@@ -0,0 +1,298 @@
+package io.onedev.k8shelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Writes specified files under a base dir as a tar stream. Regular files keep their
+ * executable bit, and symbolic links are stored as links.
+ * <p>
+ * Files are read ahead by a thread pool while entries are written in the specified order.
+ * At most 256 files are read ahead, and only files not larger than 256KB are buffered in
+ * memory, while larger files are streamed when written. When writing a whole dir, the dir
+ * is walked by a separate thread while files already walked are written
+ */
+public class TarWriter {
+
+	public static final String ENV_TAR_THREADS = "ONEDEV_TAR_THREADS";
+
+	private static final int DEFAULT_TAR_THREADS = 8;
+
+	private static final int READ_AHEAD_FILES = 256;
+
+	private static final int MAX_READ_AHEAD_SIZE = 256 * 1024;
+
+	private static final int MAX_QUEUED_PATHS = 4096;
+
+	/**
+	 * List directories, regular files and symbolic links under specified dir not matching
+	 * the exclude matcher, with parent directories listed before their children
+	 */
+	public static List<String> list(File baseDir, ExcludeMatcher excludeMatcher) {
+		var paths = new ArrayList<String>();
+		excludeMatcher.walk(baseDir, (path, relativePath, attrs) -> {
+			if (isListed(attrs))
+				paths.add(relativePath);
+			return true;
+		});
+		return paths;
+	}
+
+	private static boolean isListed(BasicFileAttributes attrs) {
+		return attrs.isDirectory() || attrs.isRegularFile() || attrs.isSymbolicLink();
+	}
+
+	public static void write(File baseDir, ExcludeMatcher excludeMatcher, OutputStream os) {
+		write(baseDir, excludeMatcher, os, null);
+	}
+
+	/**
+	 * Write files under specified dir as listed by {@link #list(File, ExcludeMatcher)}. Files
+	 * are fed from the walk through a bounded queue, so that writing starts before the walk
+	 * finishes
+	 */
+	public static void write(File baseDir, ExcludeMatcher excludeMatcher, OutputStream os, 
+			@Nullable EntryListener listener) {
+		var paths = new WalkingIterator(baseDir, excludeMatcher);
+		try {
+			write(baseDir, paths, os, listener);
+		} finally {
+			paths.close();
+		}
+	}
+
+	public static void write(File baseDir, Collection<String> paths, OutputStream os) {
+		write(baseDir, paths, os, null);
+	}
+
+	/**
+	 * @param listener listener to be notified before each entry is written. All bytes of
+	 * previous entries are written to specified stream when notified
+	 */
+	public static void write(File baseDir, Collection<String> paths, OutputStream os, 
+			@Nullable EntryListener listener) {
+		write(baseDir, paths.iterator(), os, listener);
+	}
+
+	private static void write(File baseDir, Iterator<String> it, OutputStream os, 
+			@Nullable EntryListener listener) {
+		// Records are not held back in blocks if entry boundaries need to be observed
+		var tar = listener != null 
+				? new TarArchiveOutputStream(os, TarConstants.DEFAULT_RCDSIZE) 
+				: new TarArchiveOutputStream(os);
+		tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+		tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+
+		var threads = KubernetesHelper.getIntEnv(ENV_TAR_THREADS, DEFAULT_TAR_THREADS);
+		var threadNumber = new AtomicInteger();
+		var executor = threads > 1 ? Executors.newFixedThreadPool(threads, runnable -> {
+			var thread = new Thread(runnable, "tar-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}) : null;
+		var stats = TransferStats.current();
+		try {
+			var window = new ArrayDeque<Future<FileContent>>();
+			while (true) {
+				while (executor != null && it.hasNext() && window.size() < READ_AHEAD_FILES) {
+					var path = it.next();
+					window.add(executor.submit(() -> read(baseDir, path)));
+				}
+				FileContent content;
+				if (!window.isEmpty())
+					content = window.poll().get();
+				else if (it.hasNext())
+					content = read(baseDir, it.next());
+				else
+					break;
+				if (content != null) {
+					if (listener != null)
+						listener.beforeEntry(content.path, content.attrs);
+					write(tar, baseDir, content);
+					if (stats != null && content.attrs.isRegularFile())
+						stats.addFile(content.bytes != null ? content.bytes.length : content.attrs.size());
+				}
+			}
+			tar.finish();
+			tar.flush();
+		} catch (IOException | InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			if (executor != null)
+				executor.shutdownNow();
+		}
+	}
+
+	@Nullable
+	private static FileContent read(File baseDir, String path) throws IOException {
+		var file = new File(baseDir, path).toPath();
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (IOException e) {
+			// file removed since it is listed
+			return null;
+		}
+		var content = new FileContent(path, attrs);
+		if (attrs.isSymbolicLink()) {
+			content.linkName = Files.readSymbolicLink(file).toString();
+		} else if (attrs.isRegularFile()) {
+			content.executable = Files.isExecutable(file);
+			if (attrs.size() <= MAX_READ_AHEAD_SIZE) {
+				try {
+					content.bytes = Files.readAllBytes(file);
+				} catch (NoSuchFileException e) {
+					return null;
+				}
+			}
+		}
+		return content;
+	}
+
+	private static void write(TarArchiveOutputStream tar, File baseDir, FileContent content) throws IOException {
+		var attrs = content.attrs;
+		TarArchiveEntry entry;
+		if (attrs.isSymbolicLink()) {
+			entry = new TarArchiveEntry(content.path, TarConstants.LF_SYMLINK);
+			entry.setLinkName(content.linkName);
+		} else if (attrs.isDirectory()) {
+			entry = new TarArchiveEntry(content.path + "/");
+		} else {
+			entry = new TarArchiveEntry(content.path);
+			entry.setSize(content.bytes != null ? content.bytes.length : attrs.size());
+			entry.setMode(content.executable ? 0100755 : 0100644);
+		}
+		entry.setModTime(attrs.lastModifiedTime().toMillis());
+		tar.putArchiveEntry(entry);
+		if (attrs.isRegularFile()) {
+			if (content.bytes != null) {
+				tar.write(content.bytes);
+			} else {
+				Files.copy(new File(baseDir, content.path).toPath(), tar);
+			}
+		}
+		tar.closeArchiveEntry();
+	}
+
+	public interface EntryListener {
+
+		void beforeEntry(String path, BasicFileAttributes attrs) throws IOException;
+
+	}
+
+	private static class WalkingIterator implements Iterator<String> {
+
+		// Marks end of the walk, compared by identity
+		private static final String END = new String();
+
+		private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(MAX_QUEUED_PATHS);
+
+		private final Thread walker;
+
+		private volatile Throwable walkFailure;
+
+		private String next;
+
+		WalkingIterator(File baseDir, ExcludeMatcher excludeMatcher) {
+			walker = new Thread(() -> {
+				try {
+					excludeMatcher.walk(baseDir, (path, relativePath, attrs) -> {
+						if (isListed(attrs)) {
+							try {
+								queue.put(relativePath);
+							} catch (InterruptedException e) {
+								throw new InterruptedIOException();
+							}
+						}
+						return true;
+					});
+				} catch (Throwable e) {
+					walkFailure = e;
+				}
+				try {
+					queue.put(END);
+				} catch (InterruptedException e) {
+					// Writer is closed
+				}
+			}, "tar-walker");
+			walker.setDaemon(true);
+			walker.start();
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null) {
+				try {
+					next = queue.take();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			if (next == END) {
+				if (walkFailure != null)
+					throw new RuntimeException("Error listing files", walkFailure);
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public String next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			var result = next;
+			next = null;
+			return result;
+		}
+
+		void close() {
+			walker.interrupt();
+		}
+
+	}
+
+	private static class FileContent {
+
+		final String path;
+
+		final BasicFileAttributes attrs;
+
+		boolean executable;
+
+		String linkName;
+
+		byte[] bytes;
+
+		FileContent(String path, BasicFileAttributes attrs) {
+			this.path = path;
+			this.attrs = attrs;
+		}
+
+	}
+
+}
@@ -0,0 +1,203 @@
+package io.onedev.k8shelper;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Schedules cache and user data transfers of current process. At most specified number of
+ * transfers run at the same time, and waiting transfers are started smallest first, with
+ * transfers of unknown size started last in submission order. Streams of transfers are
+ * metered to share a token bucket capping total bandwidth
+ */
+public class TransferScheduler {
+
+	public static final String ENV_MAX_STREAMS = "ONEDEV_TRANSFER_MAX_STREAMS";
+
+	// In kilobytes per second. Bandwidth is not limited if not specified or 0
+	public static final String ENV_MAX_BANDWIDTH = "ONEDEV_TRANSFER_MAX_BANDWIDTH";
+
+	public static final long UNKNOWN_SIZE = -1;
+
+	private static final int DEFAULT_MAX_STREAMS = 4;
+
+	private static TransferScheduler instance;
+
+	private final int maxStreams;
+
+	// Bytes per second, or 0 if not limited
+	private final long bandwidth;
+
+	private final PriorityQueue<Ticket> waitingTickets = new PriorityQueue<>(
+			Comparator.comparingLong((Ticket it) -> it.size).thenComparingLong(it -> it.sequence));
+
+	private long nextSequence;
+
+	private int activeStreams;
+
+	private double tokens;
+
+	private long refillTime = System.nanoTime();
+
+	public TransferScheduler(int maxStreams, long bandwidth) {
+		this.maxStreams = Math.max(maxStreams, 1);
+		this.bandwidth = Math.max(bandwidth, 0);
+		tokens = this.bandwidth;
+	}
+
+	public static synchronized TransferScheduler get() {
+		if (instance == null) {
+			instance = new TransferScheduler(
+					KubernetesHelper.getIntEnv(ENV_MAX_STREAMS, DEFAULT_MAX_STREAMS),
+					KubernetesHelper.getIntEnv(ENV_MAX_BANDWIDTH, 0) * 1024L);
+		}
+		return instance;
+	}
+
+	public int getMaxStreams() {
+		return maxStreams;
+	}
+
+	/**
+	 * Run specified transfer when a stream is available
+	 *
+	 * @param size estimated size of the transfer in bytes, or {@link #UNKNOWN_SIZE}
+	 */
+	public <T> T execute(long size, Callable<T> transfer) {
+		synchronized (this) {
+			var ticket = new Ticket(size, nextSequence++);
+			waitingTickets.add(ticket);
+			try {
+				while (activeStreams >= maxStreams || waitingTickets.peek() != ticket)
+					wait();
+			} catch (InterruptedException e) {
+				waitingTickets.remove(ticket);
+				notifyAll();
+				throw new RuntimeException(e);
+			}
+			waitingTickets.poll();
+			activeStreams++;
+			notifyAll();
+		}
+		try {
+			return transfer.call();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			synchronized (this) {
+				activeStreams--;
+				notifyAll();
+			}
+		}
+	}
+
+	public void execute(long size, Runnable transfer) {
+		execute(size, () -> {
+			transfer.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Meter stream of transfer running in current thread. Bytes of the stream are throttled 
+	 * by bandwidth limit, and counted into {@link TransferStats#current()} if any
+	 */
+	public InputStream meter(InputStream is) {
+		var stats = TransferStats.current();
+		if (bandwidth == 0 && stats == null)
+			return is;
+		return new FilterInputStream(is) {
+
+			@Override
+			public int read() throws IOException {
+				var b = super.read();
+				if (b != -1)
+					transferred(stats, 1);
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				var count = super.read(b, off, len);
+				if (count > 0)
+					transferred(stats, count);
+				return count;
+			}
+
+		};
+	}
+
+	public OutputStream meter(OutputStream os) {
+		var stats = TransferStats.current();
+		if (bandwidth == 0 && stats == null)
+			return os;
+		return new FilterOutputStream(os) {
+
+			@Override
+			public void write(int b) throws IOException {
+				transferred(stats, 1);
+				out.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				transferred(stats, len);
+				out.write(b, off, len);
+			}
+
+		};
+	}
+
+	private void transferred(@Nullable TransferStats stats, int bytes) throws IOException {
+		if (stats != null)
+			stats.addWireBytes(bytes);
+		if (bandwidth != 0)
+			consume(bytes);
+	}
+
+	/**
+	 * Take specified bytes from the token bucket, and wait until the bucket is no longer in
+	 * debt. Bucket holds at most one second of bandwidth
+	 */
+	private void consume(int bytes) throws IOException {
+		long waitNanos;
+		synchronized (this) {
+			var now = System.nanoTime();
+			tokens = Math.min(bandwidth, tokens + (now - refillTime) * bandwidth / 1e9);
+			refillTime = now;
+			tokens -= bytes;
+			waitNanos = tokens < 0 ? (long) (-tokens * 1e9 / bandwidth) : 0;
+		}
+		if (waitNanos != 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+
+	private static class Ticket {
+
+		final long size;
+
+		final long sequence;
+
+		Ticket(long size, long sequence) {
+			this.size = size != UNKNOWN_SIZE ? size : Long.MAX_VALUE;
+			this.sequence = sequence;
+		}
+
+	}
+
+}
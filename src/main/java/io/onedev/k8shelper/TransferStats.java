@@ -0,0 +1,205 @@
+package io.onedev.k8shelper;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.io.FileUtils.byteCountToDisplaySize;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Statistics of a single transfer. Transfer code running via {@link #record(Callable)}
+ * reports bytes on the wire through streams metered by {@link TransferScheduler}, and bytes
+ * on disk through {@link TarWriter} and {@link TarExtractor}. Finished stats are kept until
+ * {@link #save(File)} is called to append them to the stats file as JSON lines
+ */
+public class TransferStats {
+
+	private static final Logger logger = LoggerFactory.getLogger(TransferStats.class);
+
+	public static final String FILE_NAME = "transfer-stats";
+
+	private static final ThreadLocal<TransferStats> current = new ThreadLocal<>();
+
+	private static final List<TransferStats> unsaved = new ArrayList<>();
+
+	private final String type;
+
+	private final String subject;
+
+	private final AtomicLong wireBytes = new AtomicLong();
+
+	private final AtomicLong diskBytes = new AtomicLong();
+
+	private final AtomicInteger files = new AtomicInteger();
+
+	private volatile long startTime;
+
+	private volatile long firstByteTime;
+
+	private volatile long endTime;
+
+	/**
+	 * @param type type of the transfer, for instance <tt>cache-download</tt>
+	 * @param subject subject of the transfer, for instance description of the cache
+	 */
+	public TransferStats(String type, String subject) {
+		this.type = type;
+		this.subject = subject;
+	}
+
+	/**
+	 * @return stats of transfer running in current thread, or <tt>null</tt> if transfer is
+	 * not recorded
+	 */
+	@Nullable
+	public static TransferStats current() {
+		return current.get();
+	}
+
+	/**
+	 * Run specified transfer in current thread while recording its stats
+	 */
+	public <T> T record(Callable<T> transfer) {
+		var previous = current.get();
+		current.set(this);
+		startTime = System.nanoTime();
+		try {
+			return transfer.call();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			endTime = System.nanoTime();
+			current.set(previous);
+			synchronized (unsaved) {
+				unsaved.add(this);
+			}
+		}
+	}
+
+	public void record(Runnable transfer) {
+		record(() -> {
+			transfer.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Run specified code in current thread without recording into stats of current transfer
+	 */
+	public static void untracked(Runnable runnable) {
+		var previous = current.get();
+		current.remove();
+		try {
+			runnable.run();
+		} finally {
+			current.set(previous);
+		}
+	}
+
+	public void addWireBytes(long bytes) {
+		if (firstByteTime == 0)
+			firstByteTime = System.nanoTime();
+		wireBytes.addAndGet(bytes);
+	}
+
+	public void addFile(long bytes) {
+		files.incrementAndGet();
+		diskBytes.addAndGet(bytes);
+	}
+
+	public long getWireBytes() {
+		return wireBytes.get();
+	}
+
+	public long getDiskBytes() {
+		return diskBytes.get();
+	}
+
+	public int getFiles() {
+		return files.get();
+	}
+
+	public long getWallMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(endTime - startTime);
+	}
+
+	/**
+	 * @return milliseconds from start of the transfer until first byte on the wire, or -1
+	 * if nothing is transferred over the wire
+	 */
+	public long getFirstByteMillis() {
+		return firstByteTime != 0 ? TimeUnit.NANOSECONDS.toMillis(firstByteTime - startTime) : -1;
+	}
+
+	/**
+	 * @return bytes on the wire per second
+	 */
+	public long getThroughput() {
+		var wallMillis = Math.max(getWallMillis(), 1);
+		return getWireBytes() * 1000 / wallMillis;
+	}
+
+	public String describe() {
+		var description = String.format("%d files, %s on disk, %s on wire in %d ms (%s/s",
+				getFiles(), byteCountToDisplaySize(getDiskBytes()), byteCountToDisplaySize(getWireBytes()),
+				getWallMillis(), byteCountToDisplaySize(getThroughput()));
+		if (getFirstByteMillis() != -1)
+			description += ", first byte in " + getFirstByteMillis() + " ms";
+		return description + ")";
+	}
+
+	public String toJson() {
+		return String.format("{\"type\":%s,\"subject\":%s,\"wireBytes\":%d,\"diskBytes\":%d,\"files\":%d,"
+				+ "\"wallMillis\":%d,\"throughput\":%d,\"firstByteMillis\":%d}",
+				quote(type), quote(subject), getWireBytes(), getDiskBytes(), getFiles(),
+				getWallMillis(), getThroughput(), getFirstByteMillis());
+	}
+
+	private static String quote(String value) {
+		var builder = new StringBuilder("\"");
+		for (var ch: value.toCharArray()) {
+			if (ch == '"' || ch == '\\')
+				builder.append('\\').append(ch);
+			else if (ch < 0x20)
+				builder.append(String.format("\\u%04x", (int) ch));
+			else
+				builder.append(ch);
+		}
+		return builder.append('"').toString();
+	}
+
+	/**
+	 * Append stats of transfers finished since last save to stats file in specified dir
+	 */
+	public static void save(File dir) {
+		var lines = new ArrayList<String>();
+		synchronized (unsaved) {
+			for (var stats: unsaved)
+				lines.add(stats.toJson());
+			unsaved.clear();
+		}
+		if (lines.isEmpty())
+			return;
+		try {
+			Files.write(new File(dir, FILE_NAME).toPath(), lines, UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			logger.warn("Error saving transfer stats", e);
+		}
+	}
+
+}
@@ -5,16 +5,21 @@ import static io.onedev.commons.utils.StringUtils.parseQuoteTokens;
 import java.io.File;
 import java.io.Serializable;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import com.google.common.base.Preconditions;
 
-import io.onedev.commons.utils.FileUtils;
 import io.onedev.commons.utils.TaskLogger;
 import io.onedev.commons.utils.command.Commandline;
 
@@ -52,7 +57,12 @@ public abstract class UserDataProvisioner implements Serializable {
 		return USER_DATA_DIR + "/" + pathIndex;
 	}
 
+	/**
+	 * Download entries of all user data concurrently, with concurrency limited by 
+	 * {@link TransferScheduler}
+	 */
 	public void download(File workspaceDir, TaskLogger logger) {
+		List<Consumer<TaskLogger>> tasks = new ArrayList<>();
 		for (var userData : userDatas) {
 			var key = userData.getKey();
 			logger.log("Downloading user data '" + key + "'...");
@@ -60,18 +70,30 @@ public abstract class UserDataProvisioner implements Serializable {
 				var path = entry.getPath();
 				var pathIndex = Preconditions.checkNotNull(pathIndexes.get(path));
 				var pathFile = getPathFile(workspaceDir, pathIndex);
-				if (!pathFile.exists())
-					download(key, path, pathFile);
+				if (!pathFile.exists()) {
+					tasks.add(entryLogger -> {
+						var stats = new TransferStats("user-data-download", describe(key, path));
+						TransferScheduler.get().execute(TransferScheduler.UNKNOWN_SIZE, 
+								() -> stats.record(() -> download(key, path, pathFile)));
+						entryLogger.log(MessageFormat.format("Downloaded {0}: {1}", describe(key, path), stats.describe()));
+					});
+				}
 			}
 		}
+		ConcurrentTasks.run(tasks, tasks.size(), logger);
 		provisionDate = new Date();
 	}
 
+	/**
+	 * Upload changed entries of all user data concurrently, and then notify server of 
+	 * uploaded keys
+	 */
 	public void upload(File workspaceDir, TaskLogger logger) {
+		List<Consumer<TaskLogger>> tasks = new ArrayList<>();
+		Set<String> uploadedKeys = Collections.synchronizedSet(new HashSet<>());
 		for (var userData : userDatas) {
 			var key = userData.getKey();
 			logger.log("Uploading user data '" + key + "'...");
-			var uploaded = false;
 			for (var entry : userData.getEntries()) {
 				var path = entry.getPath();
 				
@@ -81,23 +103,47 @@ public abstract class UserDataProvisioner implements Serializable {
 				var pathFile = getPathFile(workspaceDir, pathIndex);
 				if (!pathFile.exists())
 					continue;
-				var changed = false;
-				if (provisionDate == null) 
-					changed = true;
-				else if (pathFile.isDirectory()) 
-					changed = FileUtils.hasChangedFiles(pathFile, provisionDate, excludes);
-				else 
-					changed = pathFile.lastModified() > provisionDate.getTime();
-				
-				if (changed) {
-					logger.log(MessageFormat.format("User data changed (key: {0}, path: {1}), storing", key, path));
-					upload(key, path, pathFile, excludes);
-					uploaded = true;
-				}
+				tasks.add(entryLogger -> {
+					var changed = false;
+					if (provisionDate == null) 
+						changed = true;
+					else if (pathFile.isDirectory()) {
+						// No manifest diff follows, so directory modification time is not checked as 
+						// it also changes when only excluded children change
+						var detector = new ChangeDetector(ExcludeMatcher.of(excludes), provisionDate, false);
+						changed = detector.detect(pathFile);
+						entryLogger.log(MessageFormat.format("Checked changes of {0} ({1})", 
+								describe(key, path), detector.describe()));
+					} else 
+						changed = pathFile.lastModified() > provisionDate.getTime();
+					
+					if (changed) {
+						entryLogger.log(MessageFormat.format("User data changed (key: {0}, path: {1}), storing", key, path));
+						// Avoid walking the directory again just to estimate the size
+						var size = pathFile.isDirectory() 
+								? TransferScheduler.UNKNOWN_SIZE 
+								: pathFile.length();
+						var stats = new TransferStats("user-data-upload", describe(key, path));
+						TransferScheduler.get().execute(size, () -> stats.record(() -> upload(key, path, pathFile, excludes)));
+						entryLogger.log(MessageFormat.format("Uploaded {0}: {1}", describe(key, path), stats.describe()));
+						uploadedKeys.add(key);
+					}
+				});
 			}
-			if (uploaded)
-				notifyUploaded(key);
 		}
+		ConcurrentTasks.run(tasks, tasks.size(), logger);
+
+		var keys = userDatas.stream()
+				.map(UserDataFacade::getKey)
+				.filter(uploadedKeys::contains)
+				.distinct()
+				.collect(Collectors.toList());
+		if (!keys.isEmpty())
+			notifyUploaded(keys);
+	}
+
+	private static String describe(String key, String path) {
+		return MessageFormat.format("user data (key: {0}, path: {1})", key, path);
 	}
 
 	protected abstract void download(String key, String path, File pathFile);
@@ -106,6 +152,15 @@ public abstract class UserDataProvisioner implements Serializable {
 
 	protected abstract void notifyUploaded(String key);
 
+	/**
+	 * Notify server of uploaded keys. Subclasses may override to notify all keys with a 
+	 * single request if supported by server
+	 */
+	protected void notifyUploaded(List<String> keys) {
+		for (var key: keys)
+			notifyUploaded(key);
+	}
+
 	public void mountVolumes(Commandline docker, File workspaceDir, Function<String, String> hostPathResolver) {
 		for (var entry: pathIndexes.entrySet()) {
 			var pathFile = getPathFile(workspaceDir, entry.getValue());
@@ -1,11 +1,11 @@
 package io.onedev.k8shelper;
 
 import static io.onedev.k8shelper.KubernetesHelper.GIT_TRUST_ALL_DIRS;
-import static io.onedev.k8shelper.KubernetesHelper.buildRestClient;
 import static io.onedev.k8shelper.KubernetesHelper.buildSSLFactory;
 import static io.onedev.k8shelper.KubernetesHelper.changeOwner;
 import static io.onedev.k8shelper.KubernetesHelper.checkStatus;
 import static io.onedev.k8shelper.KubernetesHelper.cloneRepository;
+import static io.onedev.k8shelper.KubernetesHelper.getRestClient;
 import static io.onedev.k8shelper.KubernetesHelper.initRepository;
 import static io.onedev.k8shelper.KubernetesHelper.newCacheProvisioner;
 import static io.onedev.k8shelper.KubernetesHelper.newErrorLogger;
@@ -13,21 +13,34 @@ import static io.onedev.k8shelper.KubernetesHelper.newInfoLogger;
 import static io.onedev.k8shelper.KubernetesHelper.readInt;
 import static io.onedev.k8shelper.KubernetesHelper.setupGitCerts;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 import static javax.ws.rs.core.MediaType.APPLICATION_OCTET_STREAM;
+import static javax.ws.rs.core.Response.Status.OK;
 import static org.apache.commons.lang3.SerializationUtils.deserialize;
 import static org.apache.commons.lang3.SerializationUtils.serialize;
 import static org.glassfish.jersey.client.ClientProperties.REQUEST_ENTITY_PROCESSING;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
@@ -40,8 +53,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.onedev.commons.utils.ExceptionUtils;
+import io.onedev.commons.utils.ExplicitException;
 import io.onedev.commons.utils.FileUtils;
-import io.onedev.commons.utils.TarUtils;
 import io.onedev.commons.utils.TaskLogger;
 import io.onedev.commons.utils.command.Commandline;
 import io.onedev.commons.utils.command.LineConsumer;
@@ -71,6 +84,17 @@ public class WorkspaceHelper {
 
 	public static final String ENV_TERM = "TERM";
 
+	public static final String USER_DATA_FORMATS = "OneDevUserDataFormats";
+
+	public static final String USER_DATA_FORMAT_FILE = "file";
+
+	public static final String USER_DATA_FORMAT_BATCH_NOTIFY = "batch-notify";
+
+	// Availability flag of user data sent as a single raw file instead of tar
+	private static final int USER_DATA_AVAILABLE_AS_FILE = 2;
+
+	private static final Map<String, String> userDataFormats = new ConcurrentHashMap<>();
+
 	private static final Logger logger = LoggerFactory.getLogger(WorkspaceHelper.class);
 
 	private static File getWorkspaceDir() {
@@ -184,6 +208,7 @@ public class WorkspaceHelper {
 		var userDataProvisioner = newUserDataProvisioner(
 				serverUrl, workspaceToken, workspaceData.getUserDatas());
 		userDataProvisioner.download(getWorkspaceDir(), newInfoTaskLogger());
+		TransferStats.save(getWorkspaceDir());
 
 		if (workspaceData.getSetupScriptConfig() != null)
 			writeSetupScript(getWorkspaceDir(), workspaceData.getSetupScriptConfig());
@@ -217,28 +242,25 @@ public class WorkspaceHelper {
 			for (var cacheProvisioner : initInfo.cacheProvisioners) {
 				cacheProvisioner.upload(getWorkspaceDir(), newInfoTaskLogger());
 			}
+			TransferStats.save(getWorkspaceDir());
 		}
 	}
 
 	private static KubernetesWorkspaceData downloadWorkspaceData(String serverUrl, String workspaceToken,
 														   SSLFactory sslFactory) {
-		Client client = buildRestClient(sslFactory);
-		try {
-			WebTarget target = client.target(serverUrl)
-					.path("~api/worker/workspace-data")
-					.queryParam("token", workspaceToken);
-			Invocation.Builder builder = target.request();
-
-			logger.info("Retrieving workspace data from {}...", serverUrl);
-			byte[] dataBytes;
-			try (Response response = builder.get()) {
-				checkStatus(response);
-				dataBytes = response.readEntity(byte[].class);
-			}
-			return deserialize(dataBytes);
-		} finally {
-			client.close();
+		Client client = getRestClient(sslFactory);
+		WebTarget target = client.target(serverUrl)
+				.path("~api/worker/workspace-data")
+				.queryParam("token", workspaceToken);
+		Invocation.Builder builder = target.request();
+
+		logger.info("Retrieving workspace data from {}...", serverUrl);
+		byte[] dataBytes;
+		try (Response response = builder.get()) {
+			checkStatus(response);
+			dataBytes = response.readEntity(byte[].class);
 		}
+		return deserialize(dataBytes);
 	}
 
 	public static void setupRepository(File workspaceDir, Commandline git, String userName,
@@ -304,63 +326,156 @@ public class WorkspaceHelper {
 
 	public static boolean downloadUserData(String serverUrl, String token,
 				String key, String path, File pathFile, @Nullable SSLFactory sslFactory) {
-		Client client = buildRestClient(sslFactory);
-		try {
-			WebTarget target = client.target(serverUrl)
-					.path("~api/worker/workspace-user-data")
-					.queryParam("token", token)
-					.queryParam("key", key)
-					.queryParam("path", path);
-			Invocation.Builder builder = target.request();
-			try (Response response = builder.get()) {
-				checkStatus(response);
-				try (InputStream is = response.readEntity(InputStream.class)) {
-					boolean dataAvailable = readInt(is) != 0;
-					if (dataAvailable)
-						TarUtils.untar(is, pathFile, false);
-					return dataAvailable;
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				}
+		Client client = getRestClient(sslFactory);
+		WebTarget target = client.target(serverUrl)
+				.path("~api/worker/workspace-user-data")
+				.queryParam("token", token)
+				.queryParam("key", key)
+				.queryParam("path", path);
+		Invocation.Builder builder = target.request();
+		builder.header(USER_DATA_FORMATS, USER_DATA_FORMAT_FILE);
+		try (Response response = builder.get()) {
+			checkStatus(response);
+			try (InputStream is = response.readEntity(InputStream.class)) {
+				var availability = readInt(is);
+				if (availability == USER_DATA_AVAILABLE_AS_FILE)
+					readUserDataFile(TransferScheduler.get().meter(is), pathFile);
+				else if (availability != 0)
+					new TarExtractor(pathFile).extract(TransferScheduler.get().meter(is), 0);
+				return availability != 0;
+			} catch (IOException e) {
+				throw new RuntimeException(e);
 			}
-		} finally {
-			client.close();
 		}
 	}
 
-	public static void uploadUserData(String serverUrl, String token,
-				String key, String path, File pathDir, List<String> excludes, @Nullable SSLFactory sslFactory) {
-		Client client = buildRestClient(sslFactory);
-		client.property(REQUEST_ENTITY_PROCESSING, "CHUNKED");
-		try {
-			WebTarget target = client.target(serverUrl)
-					.path("~api/worker/workspace-user-data")
-					.queryParam("token", token)
-					.queryParam("key", key)
-					.queryParam("path", path);
-			Invocation.Builder builder = target.request();
-			StreamingOutput output = os -> TarUtils.tar(pathDir, excludes, os, false);
-			try (Response response = builder.post(Entity.entity(output, APPLICATION_OCTET_STREAM))) {
-				checkStatus(response);
+	/**
+	 * Read user data file sent as modification time, executable flag and length followed by 
+	 * content
+	 */
+	private static void readUserDataFile(InputStream is, File file) throws IOException {
+		var dataIs = new DataInputStream(is);
+		var lastModified = dataIs.readLong();
+		var executable = dataIs.readBoolean();
+		var length = dataIs.readLong();
+		if (file.isDirectory())
+			FileUtils.deleteDir(file);
+		FileUtils.createDir(file.getParentFile());
+		var stats = TransferStats.current();
+		try (var channel = FileChannel.open(file.toPath(), CREATE, WRITE, TRUNCATE_EXISTING)) {
+			var source = Channels.newChannel(dataIs);
+			long position = 0;
+			while (position < length) {
+				var transferred = channel.transferFrom(source, position, length - position);
+				if (transferred == 0)
+					throw new ExplicitException("Unexpected end of user data file");
+				position += transferred;
 			}
-		} finally {
-			client.close();
 		}
+		if (executable)
+			file.setExecutable(true, false);
+		file.setLastModified(lastModified);
+		if (stats != null)
+			stats.addFile(length);
 	}
 
-	public static void notifyUserDataUploaded(String serverUrl, String token, String key, @Nullable SSLFactory sslFactory) {
-		Client client = buildRestClient(sslFactory);
-		try {
-			WebTarget target = client.target(serverUrl)
+	private static void writeUserDataFile(OutputStream os, File file) throws IOException {
+		var stats = TransferStats.current();
+		try (var channel = FileChannel.open(file.toPath())) {
+			var length = channel.size();
+			var dataOs = new DataOutputStream(os);
+			dataOs.writeLong(file.lastModified());
+			dataOs.writeBoolean(file.canExecute());
+			dataOs.writeLong(length);
+			dataOs.flush();
+			var target = Channels.newChannel(os);
+			long position = 0;
+			while (position < length) {
+				// Length is already written, so the file must not shrink while being transferred
+				var transferred = channel.transferTo(position, length - position, target);
+				if (transferred == 0)
+					throw new ExplicitException("Unexpected end of user data file: " + file);
+				position += transferred;
+			}
+			if (stats != null)
+				stats.addFile(length);
+		}
+	}
+
+	/**
+	 * Check whether server advertises specified user data format, for instance accepting 
+	 * user data uploaded as a single raw file. Advertised formats are memorized per server
+	 */
+	private static boolean isUserDataFormatSupported(String serverUrl, String token, 
+				String format, @Nullable SSLFactory sslFactory) {
+		var formats = userDataFormats.computeIfAbsent(serverUrl, it -> {
+			WebTarget target = getRestClient(sslFactory).target(serverUrl)
 					.path("~api/worker/workspace-user-data")
-					.queryParam("token", token)
-					.queryParam("key", key);
-			Invocation.Builder builder = target.request();
-			try (Response response = builder.put(Entity.entity(new byte[0], APPLICATION_OCTET_STREAM))) {
-				checkStatus(response);
+					.queryParam("token", token);
+			try (Response response = target.request().head()) {
+				var header = response.getHeaderString(USER_DATA_FORMATS);
+				return response.getStatus() == OK.getStatusCode() && header != null? header: "";
+			} catch (ProcessingException e) {
+				return "";
 			}
-		} finally {
-			client.close();
+		});
+		return CacheEncoding.isAccepted(formats, format);
+	}
+
+	public static void uploadUserData(String serverUrl, String token,
+				String key, String path, File pathDir, List<String> excludes, @Nullable SSLFactory sslFactory) {
+		Client client = getRestClient(sslFactory);
+		WebTarget target = client.target(serverUrl)
+				.path("~api/worker/workspace-user-data")
+				.queryParam("token", token)
+				.queryParam("key", key)
+				.queryParam("path", path);
+		Invocation.Builder builder = target.request();
+		builder.property(REQUEST_ENTITY_PROCESSING, "CHUNKED");
+		StreamingOutput output;
+		if (Files.isRegularFile(pathDir.toPath(), LinkOption.NOFOLLOW_LINKS) 
+				&& isUserDataFormatSupported(serverUrl, token, USER_DATA_FORMAT_FILE, sslFactory)) {
+			builder.header(USER_DATA_FORMATS, USER_DATA_FORMAT_FILE);
+			output = os -> writeUserDataFile(TransferScheduler.get().meter(os), pathDir);
+		} else {
+			output = os -> TarWriter.write(pathDir, ExcludeMatcher.of(excludes), 
+					TransferScheduler.get().meter(os));
+		}
+		try (Response response = builder.post(Entity.entity(output, APPLICATION_OCTET_STREAM))) {
+			checkStatus(response);
+		}
+	}
+
+	public static void notifyUserDataUploaded(String serverUrl, String token, String key, 
+				@Nullable SSLFactory sslFactory) {
+		notifyUserDataUploaded(serverUrl, token, new Object[] {key}, sslFactory);
+	}
+
+	/**
+	 * Notify server that user data of specified keys are uploaded. Keys are sent as repeated 
+	 * <tt>key</tt> query params of a single request if server advertises the batch notify 
+	 * format, otherwise each key is notified with a separate request
+	 */
+	public static void notifyUserDataUploaded(String serverUrl, String token, List<String> keys, 
+				@Nullable SSLFactory sslFactory) {
+		if (keys.size() > 1 && isUserDataFormatSupported(serverUrl, token, USER_DATA_FORMAT_BATCH_NOTIFY, sslFactory)) {
+			notifyUserDataUploaded(serverUrl, token, keys.toArray(), sslFactory);
+		} else {
+			for (var key: keys)
+				notifyUserDataUploaded(serverUrl, token, key, sslFactory);
+		}
+	}
+
+	private static void notifyUserDataUploaded(String serverUrl, String token, Object[] keys, 
+				@Nullable SSLFactory sslFactory) {
+		Client client = getRestClient(sslFactory);
+		WebTarget target = client.target(serverUrl)
+				.path("~api/worker/workspace-user-data")
+				.queryParam("token", token)
+				.queryParam("key", keys);
+		Invocation.Builder builder = target.request();
+		try (Response response = builder.put(Entity.entity(new byte[0], APPLICATION_OCTET_STREAM))) {
+			checkStatus(response);
 		}
 	}
 
@@ -386,6 +501,12 @@ public class WorkspaceHelper {
 				notifyUserDataUploaded(serverUrl, workspaceToken, key, sslFactory);
 			}
 
+			@Override
+			protected void notifyUploaded(List<String> keys) {
+				var sslFactory = KubernetesHelper.buildSSLFactory(WorkspaceHelper.getTrustCertsDir());
+				notifyUserDataUploaded(serverUrl, workspaceToken, keys, sslFactory);
+			}
+
 		};
 	}
 